@@ -0,0 +1,47 @@
+package cs451;
+
+import java.nio.ByteBuffer;
+
+// Receiver-side state for one peer: which of its packet sequence numbers
+// arrived and whether it is owed an ACK. ACKs are cumulative (watermark)
+// plus SACK ranges, so one ACK covers every packet received so far.
+public class AckTracker {
+    public static final int MAX_SACK_RANGES = 64;
+    public static final int MAX_ACK_SIZE = PacketCodec.HEADER_SIZE + MAX_SACK_RANGES * 10;
+
+    private final SequenceWindow received = new SequenceWindow();
+    private final long[] rangeStarts = new long[MAX_SACK_RANGES];
+    private final long[] rangeEnds = new long[MAX_SACK_RANGES];
+    private boolean dirty = false;
+    private int unacked = 0;
+
+    // Records a data packet; returns false for a retransmitted duplicate
+    // (which still gets re-acknowledged, our previous ACK may be lost)
+    public synchronized boolean onPacket(int packetSeq) {
+        dirty = true;
+        unacked++;
+        return received.add(packetSeq);
+    }
+
+    public synchronized int unacked() {
+        return unacked;
+    }
+
+    // Writes an ACK frame if one is owed; returns false otherwise
+    public synchronized boolean writeAck(ByteBuffer buf, int myId) {
+        if (!dirty) {
+            return false;
+        }
+        int count = received.ranges(rangeStarts, rangeEnds);
+        PacketCodec.writeHeader(buf, PacketCodec.ACK, myId, count, (int) received.watermark());
+        long previousEnd = received.watermark();
+        for (int i = 0; i < count; i++) {
+            PacketCodec.writeVarInt(buf, (int) (rangeStarts[i] - previousEnd));
+            PacketCodec.writeVarInt(buf, (int) (rangeEnds[i] - rangeStarts[i]));
+            previousEnd = rangeEnds[i];
+        }
+        dirty = false;
+        unacked = 0;
+        return true;
+    }
+}
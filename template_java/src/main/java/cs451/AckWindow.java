@@ -0,0 +1,77 @@
+package cs451;
+
+// URB acknowledgements for the messages of one origin: for each seq in a
+// sliding window, a bitset of the processes known to have the message and
+// how many they are, so majority detection is one increment-and-compare.
+// The window starts at the first seq not yet released; memory follows the
+// messages in progress, not the history.
+public class AckWindow {
+    private final int words; // longs per seq, enough for ids 0..maxId
+
+    private long base = 1; // seq held by slot head
+    private int head = 0;
+    private int capacity;
+    private long[] bits; // slot i uses bits[i * words .. i * words + words - 1]
+    private int[] counts;
+
+    public AckWindow(int maxId, int initialCapacity) {
+        this.words = (maxId >>> 6) + 1;
+        this.capacity = Integer.highestOneBit(Math.max(2, initialCapacity - 1)) << 1;
+        this.bits = new long[capacity * words];
+        this.counts = new int[capacity];
+    }
+
+    // Records that processId has message seq; returns how many processes
+    // have it now, or -1 if processId was already counted or seq released
+    public synchronized int add(long seq, int processId) {
+        if (seq < base) {
+            return -1;
+        }
+        if (seq - base >= capacity) {
+            grow(seq - base + 1);
+        }
+        int slot = slot(seq);
+        int word = slot * words + (processId >>> 6);
+        long mask = 1L << processId;
+        if ((bits[word] & mask) != 0) {
+            return -1;
+        }
+        bits[word] |= mask;
+        return ++counts[slot];
+    }
+
+    // Forgets every seq <= upTo; later add() calls for them return -1
+    public synchronized void releaseUpTo(long upTo) {
+        while (base <= upTo) {
+            counts[head] = 0;
+            for (int i = head * words; i < head * words + words; i++) {
+                bits[i] = 0;
+            }
+            head = (head + 1) & (capacity - 1);
+            base++;
+        }
+    }
+
+    private int slot(long seq) {
+        return (int) ((head + (seq - base)) & (capacity - 1));
+    }
+
+    private void grow(long needed) {
+        int newCapacity = capacity;
+        while (newCapacity < needed) {
+            newCapacity *= 2;
+        }
+        long[] newBits = new long[newCapacity * words];
+        int[] newCounts = new int[newCapacity];
+        // Re-lay the ring so that head becomes slot 0
+        for (int i = 0; i < capacity; i++) {
+            int slot = (head + i) & (capacity - 1);
+            System.arraycopy(bits, slot * words, newBits, i * words, words);
+            newCounts[i] = counts[slot];
+        }
+        bits = newBits;
+        counts = newCounts;
+        capacity = newCapacity;
+        head = 0;
+    }
+}
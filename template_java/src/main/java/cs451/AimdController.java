@@ -0,0 +1,51 @@
+package cs451;
+
+// TCP Reno style window: slow start up to ssthresh, then +1 packet per
+// window of ACKs; halved on timeout, at most once per smoothed RTT.
+public class AimdController implements CongestionController {
+    static final int INITIAL_WINDOW = 64;
+    static final int MIN_WINDOW = 4;
+    static final int MAX_WINDOW = 10000;
+
+    private double cwnd = INITIAL_WINDOW;
+    private double ssthresh = MAX_WINDOW;
+    private double srttMicros = 10_000;
+    private boolean decreased = false; // nanoTime() has no fixed origin: no sentinel value
+    private long lastDecrease;
+
+    @Override
+    public int window() {
+        return (int) cwnd;
+    }
+
+    @Override
+    public void onAck(long rttMicros) {
+        if (rttMicros >= 0) {
+            srttMicros = 0.875 * srttMicros + 0.125 * rttMicros;
+        }
+        if (cwnd < ssthresh) {
+            cwnd += 1;
+        } else {
+            cwnd += 1 / cwnd;
+        }
+        cwnd = Math.min(cwnd, MAX_WINDOW);
+    }
+
+    @Override
+    public void onTimeout() {
+        long now = System.nanoTime();
+        // A burst of losses from the same window counts as one congestion event
+        if (decreased && now - lastDecrease < Math.max(10_000, srttMicros) * 1000) {
+            return;
+        }
+        decreased = true;
+        lastDecrease = now;
+        ssthresh = Math.max(MIN_WINDOW, cwnd / 2);
+        cwnd = ssthresh;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("aimd cwnd=%.1f ssthresh=%.1f", cwnd, ssthresh);
+    }
+}
@@ -1,9 +1,13 @@
 package cs451;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class Broadcaster extends Thread {
+// Runs on its own thread (platform or virtual, see Threads), started,
+// interrupted and joined through the Broadcaster itself
+public class Broadcaster implements Runnable {
+    private final Thread thread = Threads.newThread("broadcaster", this);
     private PerfectLink perfectLink;
     private final List<Host> hosts;
     private final Map<Integer, Host> hostMap;
@@ -13,16 +17,23 @@ public class Broadcaster extends Thread {
 
     // Messages to broadcast
     private int nextSeqNum = 1; // Next sequence number to send
+    // Flow control: at most this many of our broadcasts not yet delivered by
+    // us. Delivery only needs a majority, so a crashed minority (whose send
+    // queues never drain) does not stop us.
+    private static final int MAX_UNDELIVERED = 4096;
+    private final ReentrantLock undeliveredLock = new ReentrantLock();
+    private final Condition ownDelivered = undeliveredLock.newCondition();
 
     // URB data structures
-    private final Set<Message> receivedMessages = ConcurrentHashMap.newKeySet(); // messageId
-    private final Set<Message> deliveredMessages = ConcurrentHashMap.newKeySet(); // messageId
-    private final ConcurrentHashMap<Message, Set<Integer>> ackCounts = new ConcurrentHashMap<>(); // messageId -> set of processes that acknowledged
+    private final DeliveredSet receivedMessages; // (creatorId, seqNum)
+    private final DeliveredSet deliveredMessages; // (creatorId, seqNum)
+    private final AckWindow[] acks; // per creatorId: processes that have each seqNum
     private final int N; // Total number of processes
+    private final int majority; // acks needed to deliver
+    private final DeliveryWatermarks watermarks; // what each process delivered, per origin
 
     // FIFO data structures
-    private final Map<Integer, Integer> nextExpectedSeq = new ConcurrentHashMap<>(); // senderId -> next expected seqNum
-    private final Map<Integer, Map<Integer, Message>> pendingMessages = new ConcurrentHashMap<>(); // senderId -> (seqNum -> message)
+    private final ReorderBuffer[] fifo; // per creatorId: URB-delivered messages waiting for their turn
 
     public Broadcaster(PerfectLink perfectLink, List<Host> hosts, int myId, Logger logger, int numMessages) {
         this.hosts = hosts;
@@ -30,8 +41,16 @@ public class Broadcaster extends Thread {
         this.logger = logger;
         this.numMessages = numMessages;
         this.N = hosts.size();
+        this.majority = N / 2 + 1;
         this.perfectLink = perfectLink;
-        
+        this.receivedMessages = new DeliveredSet(N);
+        this.deliveredMessages = new DeliveredSet(N);
+        this.watermarks = new DeliveryWatermarks(N);
+        this.acks = new AckWindow[N + 1];
+        for (int id = 1; id <= N; id++) {
+            acks[id] = new AckWindow(N, 1024);
+        }
+
 
         // Create a map from host ID to Host object for easy access
         hostMap = new HashMap<>();
@@ -39,10 +58,9 @@ public class Broadcaster extends Thread {
             hostMap.put(host.getId(), host);
         }
 
-        // Initialize next expected sequence numbers
+        this.fifo = new ReorderBuffer[N + 1];
         for (Host host : hosts) {
-            nextExpectedSeq.put(host.getId(), 1);
-            pendingMessages.put(host.getId(), new ConcurrentHashMap<>());
+            fifo[host.getId()] = new ReorderBuffer(host.getId(), 1 << 16, this::deliverRun);
         }
     }
 
@@ -50,18 +68,34 @@ public class Broadcaster extends Thread {
         this.perfectLink =perfectLink;
     }
 
+    public void start() {
+        thread.start();
+    }
+
+    public void interrupt() {
+        thread.interrupt();
+    }
+
+    public void join() throws InterruptedException {
+        thread.join();
+    }
+
     @Override
     public void run() {
         // Start PerfectLink listener
         perfectLink.start();
 
         
-        // Broadcast messages
-        while (nextSeqNum <= numMessages) {
+        // Broadcast messages; interrupted at shutdown
+        while (nextSeqNum <= numMessages && !thread.isInterrupted()) {
+            try {
+                awaitWindow(nextSeqNum);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (Trace.DEBUG_ENABLED) Trace.record(Trace.URB_BROADCAST, myId, nextSeqNum);
             for (Host host : hosts) {
-                Message msg = new Message(nextSeqNum, myId, myId, host.getId(), 2);
-                logger.logDebug("message broadcast 1ere fois " + msg.creatorId + ":" + msg.seqNum + " a " + msg.destinationId);
-                urbBroadcast(msg);
+                urbBroadcast(host.getId(), nextSeqNum);
             }
             nextSeqNum++;
 
@@ -70,101 +104,98 @@ public class Broadcaster extends Thread {
         }
     }
 
-    private void urbBroadcast(Message message) {
+    // Waits until broadcasting seqNum keeps at most MAX_UNDELIVERED of ours undelivered
+    private void awaitWindow(int seqNum) throws InterruptedException {
+        undeliveredLock.lock();
+        try {
+            while (!watermarks.deliveredBy(myId, myId, seqNum - MAX_UNDELIVERED)) {
+                ownDelivered.await();
+            }
+        } finally {
+            undeliveredLock.unlock();
+        }
+    }
+
+    private void urbBroadcast(int destinationId, int seqNum) {
         // Send the message to all hosts using Perfect Links
-        if (message.destinationId == myId){
-            urbDeliver(message);
+        if (destinationId == myId){
+            urbDeliver(myId, seqNum, myId);
         }else{
-            perfectLink.send(message);
+            perfectLink.send(destinationId, myId, seqNum);
         }
     }
 
 
 
-    public void urbDeliver(Message message) {
+    // A copy of (creatorId, seqNum) from senderId (ourselves for our own broadcasts)
+    public void urbDeliver(int creatorId, int seqNum, int senderId) {
 
         // If first time seeing the message
 
-        logger.logDebug("message reçus " + message.creatorId + ":" + message.seqNum + " de la part de " + message.senderId);
+        if (Trace.DEBUG_ENABLED) Trace.record(Trace.URB_RECEIVE, creatorId, seqNum);
 
-        if (!receivedMessages.contains(message)) {
-            receivedMessages.add(message);
+        // The sender has the message, and so do we once it is received.
+        // Counts only grow by one, so exactly one add() sees the majority.
+        boolean majorityReached = acks[creatorId].add(seqNum, senderId) == majority;
 
-            // Initialize acknowledgment set
-            ackCounts.put(message, ConcurrentHashMap.newKeySet());
+        if (receivedMessages.add(creatorId, seqNum)) {
 
-            // Add self to acknowledgment set
-            ackCounts.get(message).add(myId);
-            ackCounts.get(message).add(message.senderId);
+            if (acks[creatorId].add(seqNum, myId) == majority) {
+                majorityReached = true;
+            }
 
-            // Send acknowledgment to everybody
-            for (Host host : hosts) {
-                //System.out.println("hots.getid " + host.getId());
-                //System.out.println("myId : " + myId + " senderId : " + message.senderId + " creatorId : "+ message.creatorId );
-                if (host.getId() != myId && host.getId() != message.senderId && host.getId() != message.creatorId 
-                    && message.creatorId != myId && !deliveredMessages.contains(message)){
-                    Message NewMessage = new Message(message.seqNum, message.creatorId, myId, host.getId(), 2);
-                    logger.logDebug("message broadcast une fois reçu " + NewMessage.creatorId + ":" + NewMessage.seqNum + " a " + NewMessage.destinationId);
-                    urbBroadcast(NewMessage);
-                }
-                if (host.getId() != myId) {
-                    Message msg_ack = new Message(message.seqNum, message.creatorId, myId, host.getId(), 1);
-                    perfectLink.sendAckURB(msg_ack);
+            // Relay to everybody else: our copy is also our acknowledgement,
+            // so the sender and the creator get it too. PerfectLink batches
+            // the relays of many messages into one packet per peer.
+            if (creatorId != myId) {
+                if (Trace.DEBUG_ENABLED) Trace.record(Trace.URB_RELAY, creatorId, seqNum);
+                for (int i = 0; i < hosts.size(); i++) {
+                    int hostId = hosts.get(i).getId();
+                    if (hostId != myId) {
+                        perfectLink.send(hostId, creatorId, seqNum);
+                    }
                 }
             }
-            
         }
 
-        // Attempt to deliver the message
-        checkAndDeliver(message);
+        if (majorityReached) {
+            deliver(creatorId, seqNum);
+        }
     }
 
-    public void handleAck(Message message_ack) {
-        
-        // Add the acknowledger (destId) to the acknowledgment set
-        Message message_data = new Message(message_ack.seqNum, message_ack.creatorId, myId, message_ack.senderId, 2);
-
-        logger.logDebug("Reçois ACK_URB message " + message_data.creatorId + ":" + message_data.seqNum + " de la part de "+ message_ack.senderId);
-        ackCounts.computeIfAbsent(message_data, k -> ConcurrentHashMap.newKeySet()).add(message_data.destinationId);
-        
-        // Attempt to deliver the message
-        checkAndDeliver(message_data);
+    // Peers exchange their watermarks (PerfectLink sends and receives the
+    // frames); a message a peer already delivered need not be sent to it again
+    public DeliveryWatermarks watermarks() {
+        return watermarks;
     }
-    
 
-    private void checkAndDeliver(Message message) {
-        Set<Integer> acks = ackCounts.get(message);
-        logger.logDebug("Check and deliver " + message.creatorId + ":"+ message.seqNum + " de la part de " + message.senderId +" alors " + acks.size());
-        if (acks != null && acks.size() >= Math.ceil(((double)N) / 2)) {
-            // Deliver the message if not already delivered
-            if (!deliveredMessages.contains(message)) {
-                deliveredMessages.add(message);
+    private void deliver(int creatorId, int seqNum) {
+        // Deliver the message if not already delivered
+        if (deliveredMessages.add(creatorId, seqNum)) {
 
-                logger.logDebug("Message deliver (pas fifo) : " + message.creatorId + ":" + message.seqNum);
+            if (Trace.DEBUG_ENABLED) Trace.record(Trace.URB_DELIVER, creatorId, seqNum);
 
-                // FIFO delivery check
-                fifoDeliver(message);
-            }
+            // FIFO delivery check
+            fifo[creatorId].add(seqNum);
         }
     }
 
-    private void fifoDeliver(Message message) {
-        // Add message to pending buffer
-        pendingMessages.get(message.creatorId).put(message.seqNum, message);
-
-        // Try to deliver messages in order
-        int nextSeq = nextExpectedSeq.get(message.creatorId);
-
-        while (pendingMessages.get(message.creatorId).containsKey(nextSeq)) {
-            pendingMessages.get(message.creatorId).remove(nextSeq);
-
-            // Deliver the message
-            //logger.logDeliver(message.creatorId, nextSeq);
-            logger.logDebug("Message deliver (FIFO) : " + message.creatorId + ":" + message.seqNum);
-
-            // Increment expected sequence number
-            nextSeq++;
-            nextExpectedSeq.put(message.creatorId, nextSeq);
+    // A run of consecutive messages of one creator is deliverable in FIFO order
+    private void deliverRun(int creatorId, int fromSeq, int toSeq) {
+        logger.logDeliverRange(creatorId, fromSeq, toSeq);
+        if (Trace.DEBUG_ENABLED) Trace.record(Trace.FIFO_DELIVER, creatorId, toSeq);
+
+        // Delivered in order up to toSeq: their acks are no longer needed
+        acks[creatorId].releaseUpTo(toSeq);
+        watermarks.update(myId, creatorId, toSeq);
+
+        if (creatorId == myId) {
+            undeliveredLock.lock();
+            try {
+                ownDelivered.signal();
+            } finally {
+                undeliveredLock.unlock();
+            }
         }
     }
 }
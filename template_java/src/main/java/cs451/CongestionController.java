@@ -0,0 +1,23 @@
+package cs451;
+
+// Decides how many packets may be in flight to one destination.
+// Called under SendWindow's lock, implementations need no locking.
+public interface CongestionController {
+
+    // Current congestion window, in packets
+    int window();
+
+    // A packet was acknowledged; rttMicros < 0 when there is no valid sample
+    void onAck(long rttMicros);
+
+    // A packet to this destination timed out
+    void onTimeout();
+
+    static CongestionController create(String kind) {
+        if (kind.equals("delay")) {
+            return new DelayController();
+        }
+        return new AimdController();
+    }
+
+}
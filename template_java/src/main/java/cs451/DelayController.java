@@ -0,0 +1,53 @@
+package cs451;
+
+// Vegas style window: compares the RTT with the smallest RTT seen and
+// keeps between ALPHA and BETA packets queued in the network. Timeouts
+// still halve the window like AIMD.
+public class DelayController implements CongestionController {
+    static final double ALPHA = 2;
+    static final double BETA = 6;
+
+    private double cwnd = AimdController.INITIAL_WINDOW;
+    private long baseRttMicros = Long.MAX_VALUE;
+    private boolean decreased = false; // nanoTime() has no fixed origin: no sentinel value
+    private long lastDecrease;
+
+    @Override
+    public int window() {
+        return (int) cwnd;
+    }
+
+    @Override
+    public void onAck(long rttMicros) {
+        if (rttMicros < 0) {
+            return;
+        }
+        long rtt = Math.max(1, rttMicros);
+        baseRttMicros = Math.min(baseRttMicros, rtt);
+        // Packets of ours sitting in queues: cwnd * (1 - baseRtt / rtt)
+        double queued = cwnd * (rtt - baseRttMicros) / rtt;
+        if (queued < ALPHA) {
+            cwnd += 1 / cwnd * 2;
+        } else if (queued > BETA) {
+            cwnd -= 1 / cwnd;
+        }
+        cwnd = Math.max(AimdController.MIN_WINDOW, Math.min(cwnd, AimdController.MAX_WINDOW));
+    }
+
+    @Override
+    public void onTimeout() {
+        long now = System.nanoTime();
+        long guard = baseRttMicros == Long.MAX_VALUE ? 10_000 : Math.max(10_000, baseRttMicros);
+        if (decreased && now - lastDecrease < guard * 1000) {
+            return;
+        }
+        decreased = true;
+        lastDecrease = now;
+        cwnd = Math.max(AimdController.MIN_WINDOW, cwnd / 2);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("delay cwnd=%.1f baseRtt=%dus", cwnd, baseRttMicros == Long.MAX_VALUE ? 0 : baseRttMicros);
+    }
+}
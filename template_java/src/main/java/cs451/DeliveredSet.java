@@ -0,0 +1,42 @@
+package cs451;
+
+import java.util.Arrays;
+
+// Duplicate suppression for (senderId, seqNum) pairs: one SequenceWindow
+// per sender, so memory is the reorder window of each sender instead of
+// every message ever seen. Safe for concurrent callers (locks per sender).
+public class DeliveredSet {
+    private volatile SequenceWindow[] windows;
+
+    public DeliveredSet(int maxId) {
+        this.windows = new SequenceWindow[maxId + 1];
+        for (int id = 0; id <= maxId; id++) {
+            windows[id] = new SequenceWindow();
+        }
+    }
+
+    // Returns false if the pair was already in the set
+    public boolean add(int senderId, int seqNum) {
+        SequenceWindow window = window(senderId);
+        synchronized (window) {
+            return window.add(seqNum);
+        }
+    }
+
+    private SequenceWindow window(int senderId) {
+        SequenceWindow[] current = windows;
+        if (senderId < current.length) {
+            return current[senderId];
+        }
+        synchronized (this) {
+            if (senderId >= windows.length) {
+                SequenceWindow[] grown = Arrays.copyOf(windows, senderId + 1);
+                for (int id = windows.length; id < grown.length; id++) {
+                    grown[id] = new SequenceWindow();
+                }
+                windows = grown;
+            }
+            return windows[senderId];
+        }
+    }
+}
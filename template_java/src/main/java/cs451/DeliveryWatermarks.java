@@ -0,0 +1,58 @@
+package cs451;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// What every process has delivered: for each (process, origin), the FIFO
+// watermark below which that process delivered every message of origin.
+// Our own row follows our deliveries, the other rows come from the
+// WATERMARK frames the peers send periodically. Watermarks only grow, so a
+// stale read is just conservative.
+public class DeliveryWatermarks {
+    private final int maxId;
+    private final AtomicIntegerArray watermarks; // [process * (maxId + 1) + origin]
+
+    public DeliveryWatermarks(int maxId) {
+        this.maxId = maxId;
+        this.watermarks = new AtomicIntegerArray((maxId + 1) * (maxId + 1));
+    }
+
+    public void update(int processId, int originId, int watermark) {
+        int index = processId * (maxId + 1) + originId;
+        int current = watermarks.get(index);
+        while (watermark > current && !watermarks.compareAndSet(index, current, watermark)) {
+            current = watermarks.get(index);
+        }
+    }
+
+    // Every message of originId up to it is known to be delivered by processId
+    public int watermark(int processId, int originId) {
+        return watermarks.get(processId * (maxId + 1) + originId);
+    }
+
+    // True once processId is known to have delivered message seqNum of originId
+    public boolean deliveredBy(int processId, int originId, int seqNum) {
+        return seqNum <= watermarks.get(processId * (maxId + 1) + originId);
+    }
+
+    // WATERMARK frame: header, then our watermark of every origin 1..maxId
+    public void writeFrame(ByteBuffer buf, int myId) {
+        PacketCodec.writeHeader(buf, PacketCodec.WATERMARK, myId, maxId, 0);
+        for (int origin = 1; origin <= maxId; origin++) {
+            PacketCodec.writeVarInt(buf, watermarks.get(myId * (maxId + 1) + origin));
+        }
+    }
+
+    public void readFrame(ByteBuffer buf, int senderId, int count) {
+        for (int origin = 1; origin <= count; origin++) {
+            int watermark = PacketCodec.readVarInt(buf);
+            if (origin <= maxId) {
+                update(senderId, origin, watermark);
+            }
+        }
+    }
+
+    public static int maxFrameSize(int maxId) {
+        return PacketCodec.HEADER_SIZE + maxId * 5;
+    }
+}
@@ -0,0 +1,57 @@
+package cs451;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongConsumer;
+
+// Multi-producer, single-consumer ring of events packed in longs.
+// Producers claim a slot with one getAndIncrement and publish it with an
+// ordered store, so they never take a lock; the single consumer reads the
+// published slots in order and frees them. 0 marks a free slot, so an
+// event must never be 0.
+public class EventRing {
+    private final AtomicLongArray slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); // next slot to claim
+    private volatile long head = 0; // next slot to consume, written by the consumer only
+
+    public EventRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new AtomicLongArray(size);
+        this.mask = size - 1;
+    }
+
+    public void put(long event) {
+        long index = tail.getAndIncrement();
+        // Ring full: wait for the consumer to free our slot
+        while (index - head >= slots.length()) {
+            Thread.onSpinWait();
+        }
+        slots.lazySet((int) (index & mask), event);
+    }
+
+    // Consumer side: hands the published events, in order, to the consumer
+    // and returns how many, at most max. Stops at the first slot claimed but
+    // not yet published.
+    public int drain(LongConsumer consumer, int max) {
+        long next = head;
+        int count = 0;
+        while (count < max) {
+            int slot = (int) (next & mask);
+            long event = slots.get(slot);
+            if (event == 0) {
+                break;
+            }
+            consumer.accept(event);
+            slots.lazySet(slot, 0);
+            next++;
+            count++;
+        }
+        head = next;
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return head == tail.get();
+    }
+}
@@ -0,0 +1,62 @@
+package cs451;
+
+import java.nio.ByteBuffer;
+
+// Single-producer, single-consumer ring of datagrams. Frames are copied
+// into preallocated slots of maxFrameSize bytes, so handing a datagram
+// over to another thread allocates nothing. The producer waits while the
+// ring is full: the datagrams behind it then queue in the socket buffer.
+public class FrameRing {
+    private final byte[][] slots;
+    private final ByteBuffer[] views; // one wrap per slot, handed to the consumer
+    private final int mask;
+    private final int maxFrameSize;
+    private volatile long head = 0; // next slot to consume, written by the consumer only
+    private volatile long tail = 0; // next slot to fill, written by the producer only
+
+    public FrameRing(int capacity, int maxFrameSize) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new byte[size][maxFrameSize];
+        this.views = new ByteBuffer[size];
+        for (int i = 0; i < size; i++) {
+            views[i] = ByteBuffer.wrap(slots[i]);
+        }
+        this.mask = size - 1;
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    // Copies frame [position, limit); returns false if it is too large to be ours
+    public boolean put(ByteBuffer frame) {
+        int length = frame.remaining();
+        if (length > maxFrameSize) {
+            return false;
+        }
+        long index = tail;
+        while (index - head >= slots.length) {
+            Thread.onSpinWait();
+        }
+        int slot = (int) (index & mask);
+        frame.get(slots[slot], 0, length);
+        views[slot].clear();
+        views[slot].limit(length);
+        tail = index + 1;
+        return true;
+    }
+
+    // Consumer side: the oldest frame, valid until release(), or null
+    public ByteBuffer peek() {
+        long index = head;
+        if (index == tail) {
+            return null;
+        }
+        return views[(int) (index & mask)];
+    }
+
+    public void release() {
+        head = head + 1;
+    }
+
+    public boolean isEmpty() {
+        return head == tail;
+    }
+}
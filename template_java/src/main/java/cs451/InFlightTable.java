@@ -0,0 +1,79 @@
+package cs451;
+
+import java.util.function.Consumer;
+
+// Packets in flight towards one destination, keyed by their packet
+// sequence number. Open addressing over preallocated slots with the seq
+// as its own hash: the table doubles whenever the in-flight span would
+// wrap, so every seq has its own slot and insert and release are
+// O(1) and allocation-free, whatever the batch contents.
+public class InFlightTable {
+    private static final long EMPTY = 0; // packet seqs start at 1
+
+    private long[] keys;
+    private Packet[] packets;
+    private int mask;
+    private long lowest = 1; // every seq below was released
+    private long highest = 0;
+
+    public InFlightTable(int initialCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(2, initialCapacity - 1)) << 1;
+        this.keys = new long[capacity];
+        this.packets = new Packet[capacity];
+        this.mask = capacity - 1;
+    }
+
+    public synchronized void put(long seq, Packet packet) {
+        if (seq - lowest >= keys.length) {
+            grow(seq - lowest + 1);
+        }
+        int slot = (int) (seq & mask);
+        keys[slot] = seq;
+        packets[slot] = packet;
+        highest = Math.max(highest, seq);
+    }
+
+    // Removes every packet with seq <= upTo; returns how many
+    public synchronized int releaseUpTo(long upTo, Consumer<Packet> onReleased) {
+        return releaseRange(lowest, upTo, onReleased);
+    }
+
+    // Removes every packet with from <= seq <= to; returns how many
+    public synchronized int releaseRange(long from, long to, Consumer<Packet> onReleased) {
+        int released = 0;
+        long end = Math.min(to, highest);
+        for (long seq = Math.max(from, lowest); seq <= end; seq++) {
+            int slot = (int) (seq & mask);
+            if (keys[slot] == seq) {
+                onReleased.accept(packets[slot]);
+                keys[slot] = EMPTY;
+                packets[slot] = null;
+                released++;
+            }
+        }
+        // Skip over the released prefix
+        while (lowest <= highest && keys[(int) (lowest & mask)] != lowest) {
+            lowest++;
+        }
+        return released;
+    }
+
+    private void grow(long span) {
+        int capacity = keys.length;
+        while (capacity < span) {
+            capacity *= 2;
+        }
+        long[] oldKeys = keys;
+        Packet[] oldPackets = packets;
+        keys = new long[capacity];
+        packets = new Packet[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = (int) (oldKeys[i] & mask);
+                keys[slot] = oldKeys[i];
+                packets[slot] = oldPackets[i];
+            }
+        }
+    }
+}
@@ -1,75 +1,326 @@
 package cs451;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
 
 public class Logger {
-    private BufferedWriter writer;
+    // Event kind packed in the top byte of an async log event, so it is never 0
+    private static final long DELIVER = 2;
+
+    private static final int RING_SIZE = 1 << 16;
+    private static final int BATCH_BYTES = 1 << 16;
+    private static final int MAX_LINE = 32; // "d " + 2 ints + separators
+    private static final long IDLE_PARK_NANOS = 100_000;
+    // "b" lines are written once this many are pending ("sync" mode)
+    private static final int SEND_BULK = 4096;
+
+    // Output lines are ASCII: they are formatted straight into bytes, no charset encoder
+    private OutputStream output;
     private final Object lock = new Object();
-    private final String debugPath;
+    // Debug file, opened once; written by logDebug and by the trace dump at close
+    private BufferedWriter debugWriter;
+    // Creating this file while running asks for a trace dump (see dumpTraceIfRequested)
+    private final Path traceTrigger;
+    private volatile boolean closed = false;
+
+    // Broadcasts are numbered 1, 2, 3... so the "b" lines are just a range:
+    // every seq <= sendsLogged was broadcast, the lines up to sendsWritten
+    // are formatted. Written in bulk, and always before any "d" line.
+    private final AtomicInteger sendsLogged = new AtomicInteger();
+    private int sendsWritten = 0;
+
+    // "async" mode: producers only publish events into the ring, the
+    // writer thread formats and writes them in batches
+    private final EventRing ring;
+    private final Thread writerThread;
+
+    // Lines formatted but not yet written: owned by the writer thread in
+    // "async" mode, guarded by lock in "sync" mode
+    private final byte[] batchBuffer = new byte[BATCH_BYTES];
+    private int batchLength = 0;
+    private final LongConsumer onEvent = this::format;
 
     public Logger(String outputPath, String debugPath) {
+        this.traceTrigger = Paths.get(System.getProperty("cs451.trace.trigger", debugPath + ".dump"));
         try {
             Files.deleteIfExists(Paths.get(outputPath));
             Files.createFile(Paths.get(outputPath));
-            writer = new BufferedWriter(new FileWriter(outputPath, true));
+            if (Options.LOG_OUTPUT.equals("mmap")) {
+                output = new MappedOutput(outputPath);
+            } else {
+                output = new BufferedOutputStream(new FileOutputStream(outputPath, true), BATCH_BYTES);
+            }
             Files.deleteIfExists(Paths.get(debugPath));
             Files.createFile(Paths.get(debugPath));
-            
+            debugWriter = new BufferedWriter(new FileWriter(debugPath, true));
         } catch (IOException e) {
             e.printStackTrace();
         }
-        this.debugPath = debugPath;
+        if (Options.LOG.equals("async")) {
+            ring = new EventRing(RING_SIZE);
+            writerThread = new Thread(this::writeLoop);
+            writerThread.setDaemon(true);
+            writerThread.start();
+        } else {
+            ring = null;
+            writerThread = null;
+        }
+    }
+
+    // Records that every message up to sequenceNumber was broadcast.
+    // Repeated or lower seqs are no-ops, so callers need no dedup.
+    public void logSend(int sequenceNumber) {
+        if (closed) {
+            return;
+        }
+        int logged = sendsLogged.get();
+        while (sequenceNumber > logged) {
+            if (sendsLogged.compareAndSet(logged, sequenceNumber)) {
+                break;
+            }
+            logged = sendsLogged.get();
+        }
+        // Racy read of sendsWritten: only decides when to take the lock
+        if (ring == null && sequenceNumber - sendsWritten >= SEND_BULK) {
+            synchronized(lock){
+                if (!closed) {
+                    formatSends();
+                    writeBatch();
+                }
+            }
+        }
+    }
+
+    public void logDeliver(Map.Entry<Integer, Integer> pair) {
+        logDeliver(pair.getKey(), pair.getValue());
+    }
+
+    public void logDeliver(int senderId, int sequenceNumber) {
+        log(DELIVER << 56 | (long) senderId << 32 | (sequenceNumber & 0xFFFFFFFFL));
+    }
+
+    // A whole batch of deliveries (e.g. the new messages of one packet) in
+    // one call: one lock and one write in "sync" mode
+    public void logDeliver(int[] senderIds, int[] sequenceNumbers, int count) {
+        if (ring != null) {
+            for (int i = 0; i < count && !closed; i++) {
+                ring.put(DELIVER << 56 | (long) senderIds[i] << 32 | (sequenceNumbers[i] & 0xFFFFFFFFL));
+            }
+            return;
+        }
+        synchronized(lock){
+            if (closed) {
+                return;
+            }
+            for (int i = 0; i < count; i++) {
+                format(DELIVER << 56 | (long) senderIds[i] << 32 | (sequenceNumbers[i] & 0xFFFFFFFFL));
+            }
+            writeBatch();
+        }
+    }
+
+    // A run of consecutive deliveries from one sender (FIFO delivery), in one call
+    public void logDeliverRange(int senderId, int fromSeq, int toSeq) {
+        if (ring != null) {
+            for (int seq = fromSeq; seq <= toSeq && !closed; seq++) {
+                ring.put(DELIVER << 56 | (long) senderId << 32 | (seq & 0xFFFFFFFFL));
+            }
+            return;
+        }
+        synchronized(lock){
+            if (closed) {
+                return;
+            }
+            for (int seq = fromSeq; seq <= toSeq; seq++) {
+                format(DELIVER << 56 | (long) senderId << 32 | (seq & 0xFFFFFFFFL));
+            }
+            writeBatch();
+        }
     }
 
-    public synchronized void logSend(int sequenceNumber) {
+    private void log(long event) {
+        if (ring != null) {
+            if (!closed) {
+                ring.put(event);
+            }
+            return;
+        }
+        synchronized(lock){
+            if (closed) {
+                return;
+            }
+            format(event);
+            writeBatch();
+        }
+    }
+
+    private static int appendInt(byte[] buf, int pos, int value) {
+        if (value < 0) {
+            buf[pos++] = '-';
+            value = -value;
+        }
+        int start = pos;
+        do {
+            buf[pos++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        // Digits were written least significant first
+        for (int i = start, j = pos - 1; i < j; i++, j--) {
+            byte c = buf[i];
+            buf[i] = buf[j];
+            buf[j] = c;
+        }
+        return pos;
+    }
+
+    // Writer thread of the "async" mode: drains the ring in large batches
+    // until close() and then empties it one last time
+    private void writeLoop() {
+        while (true) {
+            boolean stopping = closed;
+            int drained = ring.drain(onEvent, RING_SIZE);
+            formatSends();
+            writeBatch();
+            if (drained == 0) {
+                if (stopping && ring.isEmpty()) {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    // Appends the line of one delivery to batchBuffer, after the "b" lines
+    // of every broadcast recorded so far
+    private void format(long event) {
+        formatSends();
+        if (batchLength + MAX_LINE > batchBuffer.length) {
+            writeBatch();
+        }
+        int pos = batchLength;
+        batchBuffer[pos++] = 'd';
+        batchBuffer[pos++] = ' ';
+        pos = appendInt(batchBuffer, pos, (int) (event >>> 32) & 0xFFFFFF);
+        batchBuffer[pos++] = ' ';
+        pos = appendInt(batchBuffer, pos, (int) event);
+        batchBuffer[pos++] = '\n';
+        batchLength = pos;
+    }
+
+    // Appends the pending "b" lines to batchBuffer
+    private void formatSends() {
+        int upTo = sendsLogged.get();
+        while (sendsWritten < upTo) {
+            if (batchLength + MAX_LINE > batchBuffer.length) {
+                writeBatch();
+            }
+            int pos = batchLength;
+            batchBuffer[pos++] = 'b';
+            batchBuffer[pos++] = ' ';
+            pos = appendInt(batchBuffer, pos, ++sendsWritten);
+            batchBuffer[pos++] = '\n';
+            batchLength = pos;
+        }
+    }
+
+    private void writeBatch() {
+        if (batchLength == 0) {
+            return;
+        }
         synchronized(lock){
             try {
-                writer.write("b " + sequenceNumber + "\n");
+                output.write(batchBuffer, 0, batchLength);
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
+        batchLength = 0;
     }
 
-    public synchronized void logDeliver(Map.Entry<Integer, Integer> pair) {
+    public void logString (String string){
         synchronized(lock){
+            if (closed) {
+                return;
+            }
             try {
-                writer.write("d " + pair.getKey() + " " + pair.getValue() + "\n");
-                
+                output.write((string + "\n").getBytes(StandardCharsets.US_ASCII));
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
     }
 
-    public synchronized void logString (String string){
-        try {
-            writer.write(string + "\n");
-        } catch (IOException e) {
-            e.printStackTrace();
+    // Called once from the shutdown hook: events logged afterwards are
+    // dropped, everything logged before is written out
+    public void close() {
+        closed = true;
+        if (writerThread != null) {
+            LockSupport.unpark(writerThread);
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized(lock){
+            try {
+                if (writerThread == null) {
+                    formatSends();
+                    writeBatch();
+                }
+                output.flush();
+                output.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        synchronized(debugWriter){
+            try {
+                Trace.dump(debugWriter);
+                debugWriter.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
     }
 
-    public void close() {
+    // Called periodically: if the trigger file exists, removes it and appends
+    // the trace ring to the debug file, e.g. touch 1.debug.dump on a stuck run
+    public void dumpTraceIfRequested() {
         try {
-            writer.flush();
-            writer.close();
+            if (!Files.deleteIfExists(traceTrigger)) {
+                return;
+            }
+            synchronized(debugWriter){
+                Trace.dump(debugWriter);
+                debugWriter.flush();
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    public synchronized void logDebug(String string) {
-        synchronized(lock){
+    // Free-form debug line, for low-rate messages (callers check Trace.INFO_ENABLED
+    // first, so the string is not even built when tracing is off); per-packet
+    // events go through Trace.record instead
+    public void logDebug(String string) {
+        synchronized(debugWriter){
             try {
-                BufferedWriter writer_debug = new BufferedWriter(new FileWriter(debugPath, true));
-                writer_debug.write(string + "\n" + "\n");
-                writer_debug.close();
+                debugWriter.write(string);
+                debugWriter.write("\n\n");
+                debugWriter.flush();
             } catch (IOException e) {
                 e.printStackTrace();
             }
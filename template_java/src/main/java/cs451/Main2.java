@@ -11,7 +11,7 @@ public class Main2 {
 
     private static Logger logger;
     private static Broadcaster broadcaster;
-    private static DatagramSocket socket;
+    private static Transport transport;
     private static PerfectLink perfectLink;
 
     private static void handleSignal() {
@@ -23,8 +23,8 @@ public class Main2 {
         }
 
         // Close socket
-        if (socket != null && !socket.isClosed()) {
-            socket.close();
+        if (transport != null) {
+            transport.close();
         }
 
         // Write/flush output file if necessary
@@ -64,8 +64,8 @@ public class Main2 {
         // Initialize socket
         try {
             Host myHost = parser.hosts().get(parser.myId() - 1);
-            socket = new DatagramSocket(myHost.getPort());
-        } catch (SocketException e) {
+            transport = Transport.create(Options.TRANSPORT, myHost, parser.hosts());
+        } catch (IOException e) {
             e.printStackTrace();
             return;
         }
@@ -77,10 +77,10 @@ public class Main2 {
             hosts.put(host.getId(), host);
         }
 
-        //broadcaster = new Broadcaster(null, hostsList, parser.myId(), logger, numMessages);
+        broadcaster = new Broadcaster(null, hostsList, parser.myId(), logger, numMessages);
 
         // Initialize PerfectLink
-        perfectLink = new PerfectLink(socket, parser.myId(), hosts, logger, broadcaster);
+        perfectLink = new PerfectLink(transport, parser.myId(), hosts, logger, broadcaster);
 
         broadcaster.SetPerfectLink(perfectLink);
         System.out.println("passe par la main");
@@ -0,0 +1,66 @@
+package cs451;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// Output file written through memory mappings of REGION_SIZE bytes: a
+// write is a plain memory store, and what was written sits in the page
+// cache even if the JVM is killed. The file grows one region at a time, so
+// close() truncates it to the bytes actually written (a SIGKILL leaves the
+// zero-filled tail of the last region).
+// Not thread-safe.
+public class MappedOutput extends OutputStream {
+    private static final long REGION_SIZE = 16 << 20;
+
+    private final FileChannel channel;
+    private MappedByteBuffer region;
+    private long regionStart = 0;
+    private long length = 0;
+
+    public MappedOutput(String path) throws IOException {
+        this.channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.region = channel.map(FileChannel.MapMode.READ_WRITE, 0, REGION_SIZE);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        nextRegionIfFull();
+        region.put((byte) b);
+        length++;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int count) throws IOException {
+        while (count > 0) {
+            nextRegionIfFull();
+            int chunk = Math.min(count, region.remaining());
+            region.put(bytes, offset, chunk);
+            offset += chunk;
+            count -= chunk;
+            length += chunk;
+        }
+    }
+
+    private void nextRegionIfFull() throws IOException {
+        if (!region.hasRemaining()) {
+            regionStart += REGION_SIZE;
+            region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, REGION_SIZE);
+        }
+    }
+
+    @Override
+    public void flush() {
+        // Nothing buffered: the mapping already is the page cache
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.truncate(length);
+        channel.close();
+    }
+}
@@ -0,0 +1,28 @@
+package cs451;
+
+import java.util.Arrays;
+
+// Messages decoded from received packets, as parallel arrays reused by the
+// thread that owns the batch
+public class MessageBatch {
+    int[] creatorIds = new int[256];
+    int[] senderIds = new int[256];
+    int[] seqNums = new int[256];
+    int size = 0;
+
+    public void add(int creatorId, int senderId, int seqNum) {
+        if (size == creatorIds.length) {
+            creatorIds = Arrays.copyOf(creatorIds, size * 2);
+            senderIds = Arrays.copyOf(senderIds, size * 2);
+            seqNums = Arrays.copyOf(seqNums, size * 2);
+        }
+        creatorIds[size] = creatorId;
+        senderIds[size] = senderId;
+        seqNums[size] = seqNum;
+        size++;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,299 @@
+package cs451;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+// Non-blocking transport: one selector loop thread per channel does all its
+// reads and writes, the first loop also runs the periodic timers. Other
+// threads only enqueue frames. Several channels share the host port through
+// SO_REUSEPORT (see SocketTransport); a destination is always sent to from
+// the same channel. With batched outbound, each channel has an
+// OutboundStage sending from direct buffers, and its loop only receives.
+public class NioTransport implements Transport {
+    private final InetSocketAddress[] addresses;
+    private final Loop[] loops;
+    private final List<Thread> loopThreads = new ArrayList<>();
+
+    private final List<Timer> timers = new ArrayList<>();
+    private final List<Timer> newTimers = new ArrayList<>();
+
+    private FrameHandler handler;
+    private volatile boolean running = true;
+
+    private static class Outbound {
+        final int destinationId;
+        final byte[] frame;
+        final int length;
+
+        Outbound(int destinationId, byte[] frame, int length) {
+            this.destinationId = destinationId;
+            this.frame = frame;
+            this.length = length;
+        }
+    }
+
+    // Deadlines in System.nanoTime(): the wall clock may step
+    private static class Timer {
+        final Runnable task;
+        final long periodNanos;
+        long nextRun;
+
+        Timer(Runnable task, long periodMs) {
+            this.task = task;
+            this.periodNanos = periodMs * 1_000_000;
+            this.nextRun = System.nanoTime() + periodNanos;
+        }
+    }
+
+    // One channel, its selector and the thread driving them
+    private class Loop {
+        final DatagramChannel channel;
+        final Selector selector;
+        final SelectionKey key;
+        final boolean runsTimers;
+
+        // Direct buffers, owned by the loop thread
+        final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(65535);
+        final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(65535);
+
+        // Frames handed over by other threads, and frames the kernel refused (socket buffer full)
+        final ConcurrentLinkedQueue<Outbound> outbound = new ConcurrentLinkedQueue<>();
+        final ArrayDeque<Outbound> pending = new ArrayDeque<>();
+        final AtomicBoolean wakeupPending = new AtomicBoolean(false);
+        final Consumer<SelectionKey> onSelected = this::onSelected;
+
+        final OutboundStage stage; // null with direct outbound
+
+        Thread thread;
+
+        Loop(int index, int port, boolean reusePort) throws IOException {
+            this.channel = DatagramChannel.open();
+            SocketTransport.configure(channel::setOption, reusePort);
+            channel.bind(new InetSocketAddress(port));
+            channel.configureBlocking(false);
+            this.selector = Selector.open();
+            this.key = channel.register(selector, SelectionKey.OP_READ);
+            this.runsTimers = index == 0;
+            if (Options.OUTBOUND.equals("batched")) {
+                this.stage = new OutboundStage("send-" + index, 4096, true,
+                        (destinationId, frame) -> channel.send(frame, addresses[destinationId]) != 0);
+            } else {
+                this.stage = null;
+            }
+        }
+
+        void run() {
+            try {
+                while (running) {
+                    long timeout = runsTimers ? runTimers() : 0;
+                    selector.select(onSelected, timeout);
+                    wakeupPending.set(false);
+                    drainOutbound();
+                }
+            } catch (ClosedSelectorException | ClosedChannelException | CancelledKeyException e) {
+                // Transport closed (possibly in the middle of a select); exit loop
+            } catch (IOException e) {
+                if (running) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        void onSelected(SelectionKey selected) {
+            try {
+                if (selected.isReadable()) {
+                    readAll();
+                }
+                if (selected.isValid() && selected.isWritable()) {
+                    flushPending();
+                }
+            } catch (ClosedChannelException e) {
+                running = false;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        void readAll() throws IOException {
+            while (true) {
+                receiveBuffer.clear();
+                if (channel.receive(receiveBuffer) == null) {
+                    return;
+                }
+                receiveBuffer.flip();
+                handler.onFrame(receiveBuffer);
+            }
+        }
+
+        // Loop thread: replies from inside onFrame and timers go out directly
+        void sendDirect(int destinationId, byte[] frame, int length) {
+            if (pending.isEmpty()) {
+                try {
+                    if (trySend(destinationId, frame, length)) {
+                        return;
+                    }
+                } catch (IOException e) {
+                    if (running) {
+                        e.printStackTrace();
+                    }
+                    return;
+                }
+            }
+            // The caller may reuse its buffer: keep a copy
+            pending.add(new Outbound(destinationId, Arrays.copyOf(frame, length), length));
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        // Other threads, including the other loops: copied, as the caller may
+        // reuse its buffer (ACKs sent from several threads, timers of loop 0)
+        void enqueue(int destinationId, byte[] frame, int length) {
+            outbound.add(new Outbound(destinationId, Arrays.copyOf(frame, length), length));
+            if (wakeupPending.compareAndSet(false, true)) {
+                selector.wakeup();
+            }
+        }
+
+        boolean trySend(int destinationId, byte[] frame, int length) throws IOException {
+            sendBuffer.clear();
+            sendBuffer.put(frame, 0, length);
+            sendBuffer.flip();
+            return channel.send(sendBuffer, addresses[destinationId]) != 0;
+        }
+
+        void drainOutbound() throws ClosedChannelException {
+            Outbound next;
+            while ((next = outbound.poll()) != null) {
+                pending.add(next);
+            }
+            flushPending();
+        }
+
+        void flushPending() throws ClosedChannelException {
+            Outbound next;
+            while ((next = pending.peek()) != null) {
+                try {
+                    if (!trySend(next.destinationId, next.frame, next.length)) {
+                        // Kernel buffer full: wait for OP_WRITE
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                } catch (ClosedChannelException e) {
+                    throw e;
+                } catch (IOException e) {
+                    // Dropped like in sendDirect, so it cannot hold back the frames behind it
+                    if (running) {
+                        e.printStackTrace();
+                    }
+                }
+                pending.poll();
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        void close() throws IOException {
+            if (stage != null) {
+                stage.close();
+            }
+            selector.close();
+            channel.close();
+        }
+    }
+
+    public NioTransport(Host myHost, List<Host> hosts) throws IOException {
+        this.addresses = SocketTransport.resolve(hosts);
+        int count = SocketTransport.socketCount();
+        this.loops = new Loop[count];
+        for (int i = 0; i < count; i++) {
+            loops[i] = new Loop(i, myHost.getPort(), count > 1);
+        }
+    }
+
+    @Override
+    public void start(FrameHandler handler) {
+        this.handler = handler;
+        for (Loop loop : loops) {
+            loop.thread = new Thread(loop::run, "nio-" + loopThreads.size());
+            loopThreads.add(loop.thread);
+        }
+        for (Loop loop : loops) {
+            loop.thread.start();
+            if (loop.stage != null) {
+                loop.stage.start();
+            }
+        }
+    }
+
+    // Returns the select() timeout in ms until the next timer (0 = none)
+    private long runTimers() {
+        synchronized (newTimers) {
+            timers.addAll(newTimers);
+            newTimers.clear();
+        }
+        if (timers.isEmpty()) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < timers.size(); i++) {
+            Timer timer = timers.get(i);
+            if (timer.nextRun - now <= 0) {
+                timer.task.run();
+                timer.nextRun = now + timer.periodNanos;
+            }
+            next = Math.min(next, timer.nextRun - now);
+        }
+        return Math.max(1, (next + 999_999) / 1_000_000);
+    }
+
+    @Override
+    public void send(int destinationId, byte[] frame, int length) {
+        Loop loop = loops[destinationId % loops.length];
+        if (loop.stage != null && loop.stage.offer(destinationId, frame, length)) {
+            return;
+        }
+        if (Thread.currentThread() == loop.thread) {
+            loop.sendDirect(destinationId, frame, length);
+        } else {
+            loop.enqueue(destinationId, frame, length);
+        }
+    }
+
+    @Override
+    public void schedule(Runnable task, long periodMs) {
+        synchronized (newTimers) {
+            newTimers.add(new Timer(task, periodMs));
+        }
+        loops[0].selector.wakeup();
+    }
+
+    @Override
+    public List<Thread> receiveThreads() {
+        return loopThreads;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        for (Loop loop : loops) {
+            try {
+                loop.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package cs451;
+
+// Runtime switches, given as system properties, e.g.
+// JAVA_OPTS="-Dcs451.transport=nio" ./run.sh --id 1 ...
+public class Options {
+
+    // "socket": blocking DatagramSocket, one receive thread
+    // "nio": non-blocking DatagramChannel driven by a single selector loop
+    public static final String TRANSPORT = System.getProperty("cs451.transport", "socket");
+
+    // Per-destination congestion controller: "aimd" (loss based) or "delay" (Vegas style)
+    public static final String CONGESTION = System.getProperty("cs451.congestion", "aimd");
+
+    // Packet batching: "fixed" (at most 8 messages per packet, as the project rules ask)
+    // or "mtu" (as many messages as fit in BATCH_BYTES, lingering up to BATCH_LINGER_MICROS
+    // for more while earlier packets to that destination are still unacknowledged);
+    // BATCH_BYTES is capped at the UDP payload limit (65507)
+    public static final String BATCH = System.getProperty("cs451.batch", "fixed");
+    public static final int BATCH_BYTES = Integer.getInteger("cs451.batch.bytes", 1472);
+    public static final long BATCH_LINGER_MICROS = Long.getLong("cs451.batch.linger", 200);
+
+    // Output file: "sync" (callers format and write under a lock) or "async"
+    // (callers publish into a lock-free ring, one writer thread does the I/O)
+    public static final String LOG = System.getProperty("cs451.log", "sync");
+
+    // Where the output file lines go: "file" (BufferedWriter, written out on flush/close)
+    // or "mmap" (stores into a memory-mapped file, truncated to its length at close)
+    public static final String LOG_OUTPUT = System.getProperty("cs451.log.output", "file");
+
+    // Receive pipeline: decoder threads (frames sharded by sender) and delivery
+    // handler threads (messages sharded by creator). 0 runs that stage on the
+    // thread before it, so 0 and 0 keeps everything on the transport's thread.
+    public static final int RECEIVE_DECODERS = Integer.getInteger("cs451.receive.decoders", 0);
+    public static final int RECEIVE_HANDLERS = Integer.getInteger("cs451.receive.handlers", 0);
+
+    // Sockets bound on the host port ("socket" and "nio" transports), each with its
+    // own receive thread; more than 1 needs SO_REUSEPORT (Linux), else falls back to 1
+    public static final int SOCKETS = Integer.getInteger("cs451.sockets", 1);
+    // Kernel buffer sizes in bytes per socket (0: system default); capped by the
+    // kernel (net.core.rmem_max / wmem_max on Linux)
+    public static final int SOCKET_RCVBUF = Integer.getInteger("cs451.socket.rcvbuf", 4 << 20);
+    public static final int SOCKET_SNDBUF = Integer.getInteger("cs451.socket.sndbuf", 1 << 20);
+
+    // Outgoing datagrams: "direct" (each caller sends its own, for nio the loop
+    // thread) or "batched" (callers fill preallocated buffers, one flusher thread
+    // per socket sends whatever is ready back to back)
+    public static final String OUTBOUND = System.getProperty("cs451.outbound", "direct");
+
+    // Threads of the blocking loops: "platform", or "virtual" (JDK 21+, e.g. a jar
+    // built with mvn -Pvirtual-threads): then PerfectLink has one sender per peer
+    public static final String THREADS = System.getProperty("cs451.threads", "platform");
+
+}
@@ -0,0 +1,125 @@
+package cs451;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Outbound stage of one socket: callers (senders, retransmission timer,
+// ACKs from the receive side) only copy their datagram into a preallocated
+// slot of a ring; one flusher thread sends every datagram ready, back to
+// back, then parks until the next ones. No caller makes a send syscall.
+// Slots are direct buffers for channels (no copy into a temporary native
+// buffer on send) or heap buffers for DatagramSocket, which needs arrays.
+// A datagram larger than a slot, or offered after close(), is refused:
+// the caller sends it itself.
+public class OutboundStage {
+    public interface Sink {
+        // Returns false if the kernel buffer is full (non-blocking channel): sent again later
+        boolean send(int destinationId, ByteBuffer frame) throws IOException;
+    }
+
+    public static final int SLOT_SIZE = 2048; // any DATA (up to the MTU), ACK or WATERMARK frame
+    private static final long FULL_PARK_NANOS = 50_000; // kernel buffer full
+
+    private final ByteBuffer[] slots;
+    private final int[] destinations;
+    private final AtomicLongArray published; // slot i holds datagram index when published[i] == index + 1
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); // next index to claim
+    private volatile long head = 0; // next index to send, written by the flusher only
+
+    private final Sink sink;
+    private final PollingThread flusher;
+    private volatile boolean running = true;
+
+    public OutboundStage(String name, int capacity, boolean direct, Sink sink) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new ByteBuffer[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = direct ? ByteBuffer.allocateDirect(SLOT_SIZE) : ByteBuffer.allocate(SLOT_SIZE);
+        }
+        this.destinations = new int[size];
+        this.published = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.sink = sink;
+        this.flusher = new PollingThread(name) {
+            @Override
+            boolean poll() {
+                return flush() > 0;
+            }
+
+            @Override
+            boolean isEmpty() {
+                return head == tail.get();
+            }
+
+            @Override
+            boolean running() {
+                return running;
+            }
+        };
+    }
+
+    public void start() {
+        flusher.start();
+    }
+
+    public void close() {
+        running = false;
+        LockSupport.unpark(flusher);
+    }
+
+    // Any thread: queues a copy of frame[0, length); false if it does not fit
+    // a slot or the stage is closed, the caller then sends it itself
+    public boolean offer(int destinationId, byte[] frame, int length) {
+        if (length > SLOT_SIZE || !running) {
+            return false;
+        }
+        long index = tail.getAndIncrement();
+        // Ring full: wait for the flusher to free our slot, unless it stopped
+        // (the claimed slot is then never read)
+        while (index - head >= slots.length) {
+            if (!running) {
+                return false;
+            }
+            Thread.onSpinWait();
+        }
+        int slot = (int) (index & mask);
+        ByteBuffer buffer = slots[slot];
+        buffer.clear();
+        buffer.put(frame, 0, length);
+        buffer.flip();
+        destinations[slot] = destinationId;
+        published.lazySet(slot, index + 1);
+        flusher.wakeUp();
+        return true;
+    }
+
+    // Sends every published datagram, in order; returns how many
+    private int flush() {
+        long next = head;
+        int sent = 0;
+        while (running) {
+            int slot = (int) (next & mask);
+            if (published.get(slot) != next + 1) {
+                break;
+            }
+            try {
+                if (!sink.send(destinations[slot], slots[slot])) {
+                    LockSupport.parkNanos(FULL_PARK_NANOS);
+                    continue;
+                }
+            } catch (IOException e) {
+                if (running) {
+                    e.printStackTrace();
+                }
+            }
+            next++;
+            head = next;
+            sent++;
+        }
+        return sent;
+    }
+}
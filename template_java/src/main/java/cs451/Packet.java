@@ -1,35 +1,49 @@
 package cs451;
 
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
+import java.util.Arrays;
 
 public class Packet {
-    List<Map.Entry<Integer, Integer>> messagesPairs;
+    int[] creatorIds;
+    int[] seqNums;
+    int size;
     int destinationId;
-    int nature = 2; //2 means data et 0 means ack
+    int packetSeq; // per-destination sequence number, acknowledged cumulatively
+    volatile boolean acked;
+    byte[] frame; // encoded frame, kept for retransmission
+    long sentTime; // System.nanoTime() of the last transmission
+    int transmissions;
 
-    Packet(List<Map.Entry<Integer, Integer>> messagesPairs, int destinationId) {
-        this.messagesPairs = messagesPairs;
+    // RetransmitWheel bucket links
+    Packet wheelPrev;
+    Packet wheelNext;
+    long deadlineTick;
+    boolean wheelScheduled;
+
+    Packet(int capacity, int destinationId) {
+        this.creatorIds = new int[capacity];
+        this.seqNums = new int[capacity];
         this.destinationId = destinationId;
     }
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true; // Check for reference equality
-        if (o == null || getClass() != o.getClass()) return false; // Check for type equality
-        Packet packet = (Packet) o;
-        return Objects.equals(messagesPairs, packet.messagesPairs) && destinationId==packet.destinationId; // Compare messagesPairs for equality
-    }
 
-    @Override
-    public int hashCode() {
-        return Objects.hash(messagesPairs, destinationId); // Generate hash code based on messagesPairs
+    void add(int creatorId, int seqNum) {
+        if (size == creatorIds.length) {
+            creatorIds = Arrays.copyOf(creatorIds, size * 2);
+            seqNums = Arrays.copyOf(seqNums, size * 2);
+        }
+        creatorIds[size] = creatorId;
+        seqNums[size] = seqNum;
+        size++;
     }
 
     @Override
     public String toString() {
+        StringBuilder pairs = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            pairs.append(i == 0 ? "" : ", ").append(creatorIds[i]).append('=').append(seqNums[i]);
+        }
         return "Packet{" +
-            "messagesPairs=" + messagesPairs +
+            "packetSeq=" + packetSeq +
+            ", messagesPairs=[" + pairs + "]" +
             ", destinationId=" + destinationId +
             '}';
     }
@@ -0,0 +1,90 @@
+package cs451;
+
+import java.nio.ByteBuffer;
+
+public class PacketCodec {
+
+    // Frame types, same values as Message.nature
+    // (1 was ACK_URB: URB now counts relayed copies as acknowledgements)
+    public static final byte ACK = 0;
+    public static final byte DATA = 2;
+    public static final byte WATERMARK = 3;
+
+    // Fixed header: type (1 byte) | senderId (2 bytes) | count (2 bytes) | seq (4 bytes)
+    // DATA: count pairs follow, seq is the packet sequence number towards that destination
+    // ACK: count SACK ranges follow, seq is the cumulative ACK (every packet <= seq received)
+    // WATERMARK: count varints follow, the sender's FIFO delivered watermark of origins 1..count
+    public static final int TYPE_OFFSET = 0;
+    public static final int SENDER_OFFSET = 1;
+    public static final int COUNT_OFFSET = 3;
+    public static final int SEQ_OFFSET = 5;
+    public static final int HEADER_SIZE = 9;
+
+    // Worst case for one creator+seq pair, both written as varints
+    public static final int MAX_PAIR_SIZE = 10;
+
+    // Largest UDP payload over IPv4, and largest count the 16-bit header field holds
+    public static final int MAX_FRAME_SIZE = 65507;
+    public static final int MAX_COUNT = 0xFFFF;
+
+    public static void writeHeader(ByteBuffer buf, byte type, int senderId, int count, int seq) {
+        buf.put(type);
+        buf.putShort((short) senderId);
+        buf.putShort((short) count);
+        buf.putInt(seq);
+    }
+
+    public static void writePair(ByteBuffer buf, int creatorId, int seqNum) {
+        writeVarInt(buf, creatorId);
+        writeVarInt(buf, seqNum);
+    }
+
+    public static byte readType(ByteBuffer buf) {
+        return buf.get();
+    }
+
+    public static int readSender(ByteBuffer buf) {
+        return buf.getShort() & 0xFFFF;
+    }
+
+    public static int readCount(ByteBuffer buf) {
+        return buf.getShort() & 0xFFFF;
+    }
+
+    public static int readSeq(ByteBuffer buf) {
+        return buf.getInt();
+    }
+
+    public static int pairSize(int creatorId, int seqNum) {
+        return varIntSize(creatorId) + varIntSize(seqNum);
+    }
+
+    public static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    public static void writeVarInt(ByteBuffer buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    public static int readVarInt(ByteBuffer buf) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -1,374 +1,543 @@
 package cs451;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.AbstractMap.SimpleEntry;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntBinaryOperator;
 
 
 import cs451.Broadcaster;
 
 public class PerfectLink {
-    private final DatagramSocket socket;
+    private final Transport transport;
     private final int myId;
     private final Logger logger;
-    private final int QueueSizeMax = 750;
-    private double windowSize = 3000;
-    private int MIN_WINDOW_SIZE = 3000;
-    private int MAX_WINDOW_SIZE = 10000;
-    private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    // Messages queued before send() blocks the producer
+    private final int QueueSizeMax = 4096;
+    private final SendWindow sendWindow;
+    private final RetransmitWheel retransmitWheel = new RetransmitWheel(512, 10);
+    private final List<Packet> expiredPackets = new ArrayList<>(); // retransmit tick only
 
 
-    private LinkedBlockingQueue<Message> SendQueue = new LinkedBlockingQueue<>(QueueSizeMax); 
+    private final SendQueues SendQueue;
 
     private final Map<Integer, Host> hosts;
 
     // Sender-side data structures
-    private final Set<Packet> MapMessageWithoutAck = ConcurrentHashMap.newKeySet();
-    ;
-    private final int RETRANSMIT_TIMEOUT = 3000;
+    // Per destination: packets in flight by packet sequence number, so one
+    // cumulative/SACK ACK releases whole ranges
+    private final InFlightTable[] MapMessageWithoutAck;
+    private final int[] nextPacketSeq; // owned by the sending thread of each destination
+    private final RttEstimator[] rttEstimators;
+    private final int RETRANSMIT_TICK = 10;
     private final int WINDOW_TIMEOUT = 1000; 
     
 
     // Receiver-side data structures
-    private final Set<Map.Entry<Integer, Integer>> deliveredMessages = ConcurrentHashMap.newKeySet(); // messageId
-
-    // Listener threads
-    private Thread listenerThread;
-    private Thread queueThread;
-    private Thread windowThread;
+    // ACKs are coalesced: sent after ACK_EVERY packets or at the next ACK_DELAY tick
+    private final AckTracker[] ackTrackers;
+    private final int ACK_EVERY = 16;
+    private final int ACK_DELAY = 2;
+    // URB: delivery watermarks sent to every peer this often (ms)
+    private final int WATERMARK_PERIOD = 100;
+    private final ByteBuffer watermarkBuffer;
+    // (creatorId, seqNum) already delivered: per-creator watermark plus bitmap
+    private final DeliveredSet deliveredMessages;
+
+    // Sending threads: one for every destination (round-robin), or one per
+    // destination with virtual threads (receiving runs on the transport's thread)
+    private final List<Thread> senderThreads = new ArrayList<>();
 
     private AtomicInteger NumberOfAck = new AtomicInteger(0);
     private AtomicInteger NumberOfTimeOut = new AtomicInteger(0);
+    private final AtomicLong packetsSent = new AtomicLong(0);
+    private final AtomicLong messagesSent = new AtomicLong(0);
+    private final AtomicLong ackFramesSent = new AtomicLong(0);
 
     private final Broadcaster broadcaster;
 
-    private boolean alreadyResend;
+
+    // Reusable encode buffer of the ACKs, one per peer, guarded by its AckTracker:
+    // ACKs to different peers never wait for each other
+    private final ByteBuffer[] ackBuffers;
+
+    // Per peer, owned by the thread decoding that peer's frames: the RTT
+    // sample of the ACK being handled
+    private final long[] ackedSentTime;
+    private final boolean[] ackedSample;
+    private final Consumer<Packet> onReleased = this::onReleased;
+    // Receive stages; the decoding thread fills its own batch with the messages of one packet
+    private final ReceivePipeline pipeline;
+    private final ThreadLocal<MessageBatch> decodeBatch = ThreadLocal.withInitial(MessageBatch::new);
+    private final AtomicLong receivedPackets = new AtomicLong(0);
 
     
 
 
-    public PerfectLink(DatagramSocket socket, int myId, Map<Integer, Host> hosts, Logger logger, Broadcaster broadcaster) {
-        this.socket = socket;
+    public PerfectLink(Transport transport, int myId, Map<Integer, Host> hosts, Logger logger, Broadcaster broadcaster) {
+        this.transport = transport;
         this.myId = myId;
         this.hosts = hosts;
         this.logger = logger;
         this.broadcaster = broadcaster;
+
+        int maxId = 0;
+        for (int id : hosts.keySet()) {
+            maxId = Math.max(maxId, id);
+        }
+        this.rttEstimators = new RttEstimator[maxId + 1];
+        this.MapMessageWithoutAck = new InFlightTable[maxId + 1];
+        this.nextPacketSeq = new int[maxId + 1];
+        this.ackTrackers = new AckTracker[maxId + 1];
+        this.ackBuffers = new ByteBuffer[maxId + 1];
+        this.ackedSentTime = new long[maxId + 1];
+        this.ackedSample = new boolean[maxId + 1];
+        for (int id : hosts.keySet()) {
+            rttEstimators[id] = new RttEstimator();
+            MapMessageWithoutAck[id] = new InFlightTable(1024);
+            nextPacketSeq[id] = 1;
+            ackTrackers[id] = new AckTracker();
+            ackBuffers[id] = ByteBuffer.allocate(AckTracker.MAX_ACK_SIZE);
+        }
+        this.deliveredMessages = new DeliveredSet(maxId);
+        this.sendWindow = new SendWindow(maxId, Options.CONGESTION);
+        if (Options.BATCH.equals("mtu")) {
+            this.SendQueue = new SendQueues(maxId, QueueSizeMax, Integer.MAX_VALUE, Options.BATCH_BYTES, Options.BATCH_LINGER_MICROS * 1000, obsolete());
+        } else {
+            this.SendQueue = new SendQueues(maxId, QueueSizeMax, 8, Integer.MAX_VALUE, 0, obsolete());
+        }
+        this.watermarkBuffer = ByteBuffer.allocate(DeliveryWatermarks.maxFrameSize(maxId));
+        int maxFrameSize = Math.max(SendQueue.maxFrameSize(), Math.max(AckTracker.MAX_ACK_SIZE, watermarkBuffer.capacity()));
+        this.pipeline = new ReceivePipeline(Options.RECEIVE_DECODERS, Options.RECEIVE_HANDLERS, maxFrameSize,
+                this::listen, this::deliverMessages);
     }
 
     public void start() {
-        // Start the listener thread
-        listenerThread = new Thread(() -> listen());
-        listenerThread.start();
-
-        // Start the retransmission thread
-        windowThread = new Thread(() -> windowUpdate());
-        windowThread.start();
+        // Start receiving on the transport's thread, decoding and delivering
+        // on it or on the pipeline's workers
+        pipeline.start();
+        transport.start(pipeline::onFrame);
+
+        // Window adjustment and retransmissions run on the transport's timer
+        transport.schedule(this::windowUpdate, WINDOW_TIMEOUT);
+        transport.schedule(this::retransmitExpired, RETRANSMIT_TICK);
+        transport.schedule(this::flushAcks, ACK_DELAY);
+        if (broadcaster != null) {
+            transport.schedule(this::sendWatermarks, WATERMARK_PERIOD);
+        }
 
-        queueThread = new Thread(() -> queueUpdate());
-        queueThread.start();
+        if (Threads.VIRTUAL) {
+            // Cheap enough for one sender per peer, even with hundreds of hosts
+            for (int id = 1; id < nextPacketSeq.length; id++) {
+                if (hosts.containsKey(id) && id != myId) {
+                    int destinationId = id;
+                    senderThreads.add(Threads.newThread("sender-" + id, () -> queueUpdate(destinationId)));
+                }
+            }
+        } else {
+            senderThreads.add(Threads.newThread("sender", () -> queueUpdate(0)));
+        }
+        for (Thread thread : senderThreads) {
+            thread.start();
+        }
     }
 
     public void stop() {
-        // Interrupt the listener thread
-        if (listenerThread != null) {
-            listenerThread.interrupt();
-        }
-        if (queueThread != null) {
-            queueThread.interrupt();
-        }
-        if (windowThread != null) {
-            windowThread.interrupt();
+        for (Thread thread : senderThreads) {
+            thread.interrupt();
         }
 
         // Close the socket
-        if (socket != null && !socket.isClosed()) {
-            socket.close();
-        }
+        transport.close();
+        pipeline.stop();
     }
 
 
-    private void listen() {
-        byte[] buf = new byte[65535]; // Adjust buffer size if needed
-
-        while (!Thread.currentThread().isInterrupted()) {
-            DatagramPacket packet = new DatagramPacket(buf, buf.length);
-
-            try {
-                socket.receive(packet);
-                String received = new String(packet.getData(), 0, packet.getLength());
-                logger.logDebug("PerfectLink listen() : recoit paquet port : " + packet.getPort() + " contenu : " + received);
-                // Handle the received message
-                handleReceivedMessage(received, packet.getAddress(), packet.getPort());
-            } catch (SocketException e) {
-                // Socket closed; exit loop
-                break;
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    private void listen(ByteBuffer frame) {
+        // No allocation per datagram: the transport (or the decoder's ring)
+        // reuses its buffer, frames are decoded into primitives and reused batches
+        receivedPackets.incrementAndGet();
+        if (frame.remaining() < PacketCodec.HEADER_SIZE) {
+            // Invalid frame
+            return;
+        }
+        try {
+            // Handle the received message
+            handleReceivedMessage(frame);
+        } catch (BufferUnderflowException e) {
+            // Truncated frame; drop it
         }
     }
 
-    private void handleReceivedMessage(String received, InetAddress senderAddress, int senderPort) {
-        System.out.println("Recois");
-        if (received.startsWith("ACK:")) {
-            String[] parts = received.split(":");
-            if (parts.length < 4) {
-                // Invalid ACK message format
-                return;
+    private void handleReceivedMessage(ByteBuffer frame) {
+        byte type = PacketCodec.readType(frame);
+        int frameSenderId = PacketCodec.readSender(frame);
+        int NumberOfMessage = PacketCodec.readCount(frame);
+        int frameSeq = PacketCodec.readSeq(frame);
+        if (frameSenderId >= ackTrackers.length || ackTrackers[frameSenderId] == null) {
+            // Unknown sender
+            return;
+        }
+
+        if (type == PacketCodec.ACK) {
+            int ackSenderId = frameSenderId;
+            InFlightTable inFlight = MapMessageWithoutAck[ackSenderId];
+            ackedSample[ackSenderId] = false;
+
+            // Cumulative part, then the SACK ranges above it
+            int released = inFlight.releaseUpTo(frameSeq, onReleased);
+            long previousEnd = frameSeq;
+            for(int i = 0; i<NumberOfMessage; i++){
+                long rangeStart = previousEnd + PacketCodec.readVarInt(frame);
+                long rangeEnd = rangeStart + PacketCodec.readVarInt(frame);
+                released += inFlight.releaseRange(rangeStart, rangeEnd, onReleased);
+                previousEnd = rangeEnd;
             }
-            
-            int NumberOfMessage = Integer.parseInt(parts[2]);
-            int ackSenderId = Integer.parseInt(parts[1]);
-            Packet packet = new Packet(new ArrayList<>(), ackSenderId);
-            int max = NumberOfMessage*2+4;
-            for(int i = 4; i<max; i+=2){
-                int creator = Integer.parseInt(parts[i]);
-                int seqNum = Integer.parseInt(parts[i+1]);
-                NumberOfAck.incrementAndGet();
-                packet.messagesPairs.add(new AbstractMap.SimpleEntry<>(creator, seqNum));
+            if (Trace.DEBUG_ENABLED) Trace.record(Trace.ACK_RECEIVED, ackSenderId, released);
+
+            if (released > 0) {
+                NumberOfAck.addAndGet(released);
+                // Karn: retransmitted packets are ambiguous, sample the newest packet sent once
+                long rttMicros = -1;
+                if (ackedSample[ackSenderId]) {
+                    rttMicros = (System.nanoTime() - ackedSentTime[ackSenderId]) / 1000;
+                    rttEstimators[ackSenderId].onSample(rttMicros);
+                }
+                // Returns the credits and wakes the sender
+                sendWindow.onAck(ackSenderId, released, rttMicros);
+                SendQueue.wakeUp(ackSenderId);
             }
-            MapMessageWithoutAck.remove(packet);
 
 
-        } else if(received.startsWith("ACK_URB:")) {
+        } else if (type == PacketCodec.WATERMARK) {
 
-            String[] parts = received.split(":");
-            if (parts.length != 4) {
-                // Invalid ACK message format
-                return;
+            if (broadcaster != null) {
+                broadcaster.watermarks().readFrame(frame, frameSenderId, NumberOfMessage);
             }
-            int ackSenderId = Integer.parseInt(parts[1]);
-            int CreatorId = Integer.parseInt(parts[2]);
-            int seqNum = Integer.parseInt(parts[3]);
 
-            Message message_ackurb = new Message(seqNum, CreatorId, ackSenderId, myId, 1);
+        } else if (type == PacketCodec.DATA) {
 
-            //broadcaster.handleAck(message_ackurb);
-
-        } else {
+            int senderId = frameSenderId;
 
-            // Extract senderId from message
-            String[] parts = received.split(":");
-            if (parts.length < 2) {
-                // Invalid message format
+            AckTracker tracker = ackTrackers[senderId];
+            boolean isNew = tracker.onPacket(frameSeq);
+            if (Trace.DEBUG_ENABLED) Trace.record(Trace.RECEIVE, senderId, frameSeq);
+            if (tracker.unacked() >= ACK_EVERY) {
+                sendAck(senderId);
+            }
+            if (!isNew) {
+                // Retransmission of a packet already delivered
                 return;
             }
 
-      
-            int NumberOfMessage = Integer.parseInt(parts[0]);
-            int senderId = Integer.parseInt(parts[1]);
-            int max = NumberOfMessage*2+2;
+            MessageBatch batch = decodeBatch.get();
+            batch.clear();
+            for(int i = 0; i<NumberOfMessage; i++){
+                int creator = PacketCodec.readVarInt(frame);
+                int seqNum = PacketCodec.readVarInt(frame);
+                batch.add(creator, senderId, seqNum);
+            }
+            pipeline.dispatch(batch);
 
-            sendAck(received, senderId);
+        }
+    }
 
+    // Delivery stage: on the decoding thread, or on the handler of these creators
+    private void deliverMessages(MessageBatch batch) {
+        if (broadcaster != null) {
+            // URB: every copy counts, even of a message already seen
+            // from another sender; retransmitted packets were dropped above
+            for (int i = 0; i < batch.size; i++) {
+                broadcaster.urbDeliver(batch.creatorIds[i], batch.seqNums[i], batch.senderIds[i]);
+            }
+            return;
+        }
 
-            for(int i =2; i<max; i+=2){
-                int creator = Integer.parseInt(parts[i]);
-                int seqNum = Integer.parseInt(parts[i+1]);
-                Map.Entry<Integer,Integer> pair = new AbstractMap.SimpleEntry<>(creator, seqNum);
-                if (!deliveredMessages.contains(pair)) {
-                    deliveredMessages.add(pair);
-        
-                    logger.logDeliver(pair); 
-                }
+        // Keep the new messages at the front of the batch, logged in one call
+        int delivered = 0;
+        for (int i = 0; i < batch.size; i++) {
+            if (deliveredMessages.add(batch.creatorIds[i], batch.seqNums[i])) {
+                batch.creatorIds[delivered] = batch.creatorIds[i];
+                batch.seqNums[delivered] = batch.seqNums[i];
+                delivered++;
             }
-            
+        }
+        logger.logDeliver(batch.creatorIds, batch.seqNums, delivered);
+    }
 
+    // Called by InFlightTable for each packet an ACK releases
+    private void onReleased(Packet packet) {
+        packet.acked = true;
+        retransmitWheel.cancel(packet);
+        int peer = packet.destinationId;
+        if (packet.transmissions == 1 && (!ackedSample[peer] || packet.sentTime - ackedSentTime[peer] > 0)) {
+            ackedSample[peer] = true;
+            ackedSentTime[peer] = packet.sentTime;
         }
     }
 
+    // Bytes allocated so far by the receive path: the transport's threads and the
+    // pipeline's decoders and handlers (-1 if the JVM cannot tell), to be compared
+    // with receivedPackets() to check the receive path stays allocation-free
+    public long listenerAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        List<Thread> listenerThreads = new ArrayList<>(transport.receiveThreads());
+        listenerThreads.addAll(pipeline.threads());
+        if (listenerThreads.isEmpty() || !(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        long allocated = 0;
+        for (Thread listenerThread : listenerThreads) {
+            // -1 for a thread that is not alive
+            allocated += Math.max(0, ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(listenerThread.getId()));
+        }
+        return allocated;
+    }
 
-    private void queueUpdate(){
-        while (true){
-            try{
+    // Allocation check of the receive path: bytes allocated by the receiving
+    // threads per received packet (-1 if unknown), logged with the metrics.
+    // Close to 0, URB included: relays are queued as seqs, not Messages.
+    public long listenerAllocatedBytesPerPacket() {
+        long allocated = listenerAllocatedBytes();
+        long packets = receivedPackets.get();
+        return allocated < 0 || packets == 0 ? -1 : allocated / packets;
+    }
 
-                logger.logDebug("MapMessageWithoutAck: "+ MapMessageWithoutAck.size());
+    public long receivedPackets() {
+        return receivedPackets.get();
+    }
 
-                 synchronized (MapMessageWithoutAck) {
-                    while (MapMessageWithoutAck.size() >= windowSize) {
-                        logger.logDebug("PerfectLink queueUpdate() : je suis bloqué car la map : " + MapMessageWithoutAck.size() + " est plus grand que la window : " + windowSize);
-                       try {
-                            Thread.sleep(1000);
-                       } catch (Exception e) {
-                        // TODO: handle exception
-                       }
-                    }
-                }
 
-                
-                Message message = SendQueue.take();
-                //System.out.println("message : " + message.creatorId +":"+ message.seqNum);
-            
-                if (message != null) {
-                    // Extract the message and receiver
+    // Sends the batches of one destination, or of all (round-robin) if onlyDestinationId is 0
+    private void queueUpdate(int onlyDestinationId){
+        Packet batch = new Packet(SendQueue.maxBatchSize(), 0); // reused, never sent
+        ByteBuffer sendBuffer = ByteBuffer.allocate(SendQueue.maxFrameSize());
+        while (true){
+            try{
 
-                    Packet packet = new Packet(new ArrayList<>(), message.destinationId);
-                    packet.messagesPairs.add(new AbstractMap.SimpleEntry<>(message.creatorId, message.seqNum));
 
-                    int destinationId = message.destinationId;
-                    int seqNum = message.seqNum;
-                    
-                    // Try to get more messages for the same receiver
-                    List<Message> messagesList = new ArrayList<>();
-                    messagesList.add(message);
-                    for(Message msg : SendQueue){
-                        if (msg.destinationId == destinationId){
-                            messagesList.add(msg);
-                            SendQueue.remove(msg);
-                            packet.messagesPairs.add(new AbstractMap.SimpleEntry<>(msg.creatorId, msg.seqNum));
+                // Next destination (round-robin) with pending messages and a free credit
+                batch.size = 0;
+                int destinationId = onlyDestinationId;
+                if (destinationId == 0) {
+                    destinationId = SendQueue.takeBatch(batch, sendWindow);
+                } else {
+                    SendQueue.takeBatch(destinationId, batch, sendWindow);
+                }
+                if (batch.size > 0) {
+                    Packet packet = new Packet(batch.size, destinationId);
+                    for (int i = 0; i < batch.size; i++){
+                        packet.add(batch.creatorIds[i], batch.seqNums[i]);
+                    }
 
-                        }
-                        if (messagesList.size() == 8) {
-                            break;
-                        }
-                        if(messagesList.size() > 8){
-                            System.out.println("Grosse tricherie");
-                        }
-                    }  
-                    
-                    StringBuilder messageDataBuilder = new StringBuilder();
-                    
-                    messageDataBuilder.append(messagesList.size()).append(":").append(message.senderId);
-                    for (Message msg : messagesList){
-                        messageDataBuilder.append(":").append(msg.creatorId).append(":").append(msg.seqNum);
+                    packet.packetSeq = nextPacketSeq[destinationId]++;
+                    sendBuffer.clear();
+                    PacketCodec.writeHeader(sendBuffer, PacketCodec.DATA, myId, packet.size, packet.packetSeq);
+                    for (int i = 0; i < packet.size; i++){
+                        PacketCodec.writePair(sendBuffer, packet.creatorIds[i], packet.seqNums[i]);
                     }
-                    String messageData = messageDataBuilder.toString();
+                    packet.frame = Arrays.copyOf(sendBuffer.array(), sendBuffer.position());
 
-                    MapMessageWithoutAck.add(packet);
+                    MapMessageWithoutAck[destinationId].put(packet.packetSeq, packet);
+                    packetsSent.incrementAndGet();
+                    messagesSent.addAndGet(packet.size);
                     
                     // Send the packet
                     try {
-                        for(Message msg : messagesList){
-                            
-                            logger.logSend(msg.seqNum);
+                        // Own messages leave in seq order: the last one covers the whole batch
+                        for (int i = packet.size - 1; i >= 0; i--) {
+                            if (packet.creatorIds[i] == myId) {
+                                logger.logSend(packet.seqNums[i]);
+                                break;
+                            }
                         }
-                        sendMessage(packet, messageData);
+                        sendMessage(packet);
                         
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
                 }
 
+            }catch (InterruptedException e){
+                return;
             }catch (Exception e){
                 e.printStackTrace();
             }
         }
     }
 
+    // Periodic metrics: the window itself is driven by each ACK and timeout
     private void windowUpdate(){
-        try {
-            while (true) {
-                // Sleep for the timeout duration
-                Thread.sleep(WINDOW_TIMEOUT);
-
-                //System.out.println("\nACK count: " + NumberOfAck.get());
-                //System.out.println("Timeout count: " + NumberOfTimeOut.get());
-                //System.out.println("Window size: " + windowSize);
-                //System.out.println("Timeout: " + WINDOW_TIMEOUT);
-                //System.out.println("Delivered messages: " + deliveredMessages.size());
-                //System.out.println("MessageWithAck: " + MapMessageWithoutAck.size());
-                //System.out.println("Queue: " + SendQueue.size());
-
-                double Rate = (double) NumberOfAck.get() / (NumberOfAck.get() + NumberOfTimeOut.get());
-                if (Rate < 0.3) {
-                    windowSize = Math.max(windowSize / 2, MIN_WINDOW_SIZE);
-                    logger.logDebug("PerfectLink window Update () : Baisse taille de window : " + windowSize);
-                } else if (Rate > 0.7) {
-                    windowSize = Math.min(windowSize * 2, MAX_WINDOW_SIZE);
-                    logger.logDebug("PerfectLink window Update () : Augmente taille de window : " + windowSize);
-                } else {
-                    logger.logDebug("PerfectLink window Update () : Garde la taille de window " + windowSize);
-                }
+        //System.out.println("\nACK count: " + NumberOfAck.get());
+        //System.out.println("Timeout count: " + NumberOfTimeOut.get());
+        //System.out.println("Timeout: " + WINDOW_TIMEOUT);
+        //System.out.println("Delivered messages: " + deliveredMessages.size());
+        //System.out.println("Queue: " + SendQueue.size());
+
+        if (Trace.INFO_ENABLED) {
+            logger.logDebug("PerfectLink window Update () : ack " + NumberOfAck.get() + " timeout " + NumberOfTimeOut.get()
+                + " batch moyen " + averageBatchSize() + " ack envoyes " + ackFramesSent.get() + " paquets recus " + receivedPackets.get()
+                + " octets alloues par paquet recu " + listenerAllocatedBytesPerPacket());
+        }
 
-                // Reset counters for the next interval
-                NumberOfAck.set(0);
-                NumberOfTimeOut.set(0);
+        for (int id = 1; Trace.INFO_ENABLED && id < rttEstimators.length; id++) {
+            if (rttEstimators[id] != null && id != myId) {
+                logger.logDebug("PerfectLink window Update () : rtt vers " + id + " : " + rttEstimators[id]);
+                logger.logDebug("PerfectLink window Update () : window vers " + id + " : " + sendWindow.describe(id));
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
         }
+
+        if (Trace.INFO_ENABLED) {
+            logger.dumpTraceIfRequested();
+        }
+
+        // Reset counters for the next interval
+        NumberOfAck.set(0);
+        NumberOfTimeOut.set(0);
     }
 
+    // Messages per data packet since start (first transmissions only)
+    public double averageBatchSize() {
+        long packets = packetsSent.get();
+        return packets == 0 ? 0 : (double) messagesSent.get() / packets;
+    }
 
+    // Per-peer RTT/RTO metrics
+    public RttEstimator rttEstimator(int hostId) {
+        return rttEstimators[hostId];
+    }
 
-    public void send(Message message) {
-        // Include senderId in the message
-        //System.out.println("message : " +message.seqNum +":" +message.creatorId + " envoyé par " + myId + " pour "+ message.destinationId);
 
 
-        while (SendQueue.size() + 100 > QueueSizeMax) {
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+    // Blocks while QueueSizeMax messages are queued, until batches leave.
+    // Returns false, with the interrupt flag set, if interrupted meanwhile.
+    // URB never waits here: the Broadcaster bounds its own undelivered
+    // broadcasts instead, as the queue of a crashed peer never drains.
+    public boolean send(Message message) {
+        return send(message.destinationId, message.creatorId, message.seqNum);
+    }
+
+    // Same without a Message: the queues only keep the seqs owed to each destination
+    public boolean send(int destinationId, int creatorId, int seqNum) {
+        Thread current = Thread.currentThread();
+        if (broadcaster != null || transport.receiveThreads().contains(current) || pipeline.owns(current)) {
+            // The receive threads never wait (URB relays): they handle the ACKs that drain the queue
+            SendQueue.add(destinationId, creatorId, seqNum);
+            return true;
+        }
+        try {
+            SendQueue.put(destinationId, creatorId, seqNum);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         }
-        SendQueue.add(message);
     }
 
 
     
 
-    private void sendMessage(Packet packet, String string) {
-        System.out.println("Envoie");
+    private void sendMessage(Packet packet) {
         try{
-            Host destination = hosts.get(packet.destinationId);
-            InetAddress address = InetAddress.getByName(destination.getIp());
-            byte[] buf = string.getBytes();
-            DatagramPacket packet_send = new DatagramPacket(buf, buf.length, address, destination.getPort());
-            logger.logDebug("PerfectLink sendMessage() : envoie : "+ string + " au port : "+ packet_send.getPort());
-            socket.send(packet_send);
-
-            if(packet.nature==2){
-                scheduler.schedule(() -> {
-                    if (MapMessageWithoutAck.contains(packet)) {
-                        try {
-                            logger.logDebug("PerfectLink sendMessage() : doit renvoyer le packet car pas de ack reçu " + string);
-                            sendMessage(packet, string);
-                            NumberOfTimeOut.incrementAndGet();
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }, RETRANSMIT_TIMEOUT, TimeUnit.MILLISECONDS);
-            }  
-            
+            if (Trace.DEBUG_ENABLED) Trace.record(Trace.SEND, packet.destinationId, packet.packetSeq);
+            packet.sentTime = System.nanoTime();
+            packet.transmissions++;
+            transport.send(packet.destinationId, packet.frame, packet.frame.length);
+            retransmitWheel.schedule(packet, rttEstimators[packet.destinationId].rto());
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
+    // One timer tick: resend every packet whose deadline passed, in a single pass
+    private void retransmitExpired() {
+        retransmitWheel.expire(expiredPackets);
+        for (Packet packet : expiredPackets) {
+            if (!packet.acked) {
+                if (Trace.INFO_ENABLED) Trace.record(Trace.RETRANSMIT, packet.destinationId, packet.packetSeq);
+                if (packet.size > 0 && deliveredByDestination(packet)) {
+                    // The destination delivered all of it (relayed by others):
+                    // resend an empty packet, only to fill its packet seq
+                    packet.size = 0;
+                    packet.frame = emptyFrame(packet.packetSeq);
+                }
+                rttEstimators[packet.destinationId].onTimeout();
+                sendWindow.onTimeout(packet.destinationId);
+                sendMessage(packet);
+                NumberOfTimeOut.incrementAndGet();
+            }
+        }
+        expiredPackets.clear();
+    }
 
-    public void sendAck(String string, int destinationId) {
-        System.out.println("Envoie ack");
-        try {
-            StringBuilder messageAckBuilder = new StringBuilder();
-            messageAckBuilder.append("ACK:").append(myId).append(string);
-            String messageAck = messageAckBuilder.toString();
-            Host destination = hosts.get(destinationId);
-            InetAddress address = InetAddress.getByName(destination.getIp());
-            byte[] buf = messageAck.getBytes();
-            DatagramPacket packet_send = new DatagramPacket(buf, buf.length, address, destination.getPort());
-            logger.logDebug("PerfectLink sendAck() : envoie : "+ messageAck + " au port : "+ packet_send.getPort());
-            socket.send(packet_send);
-        } catch (Exception e) {
-            // TODO: handle exception
+
+    // URB only: messages their destination already delivered are not sent
+    private IntBinaryOperator obsolete() {
+        if (broadcaster == null) {
+            return null;
+        }
+        return broadcaster.watermarks()::watermark;
+    }
+
+    private boolean deliveredByDestination(Packet packet) {
+        if (broadcaster == null) {
+            return false;
+        }
+        DeliveryWatermarks watermarks = broadcaster.watermarks();
+        for (int i = 0; i < packet.size; i++) {
+            if (!watermarks.deliveredBy(packet.destinationId, packet.creatorIds[i], packet.seqNums[i])) {
+                return false;
+            }
         }
+        return true;
     }
 
+    private byte[] emptyFrame(int packetSeq) {
+        ByteBuffer buf = ByteBuffer.allocate(PacketCodec.HEADER_SIZE);
+        PacketCodec.writeHeader(buf, PacketCodec.DATA, myId, 0, packetSeq);
+        return buf.array();
+    }
 
-    public void sendAckURB(Message message) {
-        // ACK message format: "ACK:ackSenderId:originalSenderId:seqNum"
-        String ackMessage = "ACK_URB:" + myId + ":" + message.creatorId + ":" + message.seqNum;
-        // Send the ACK directly without adding to sendQueue
-      
-        Packet packet = new Packet(new ArrayList<>(), message.destinationId);
-        packet.messagesPairs.add(new AbstractMap.SimpleEntry<>(message.creatorId, message.seqNum));
+    // URB: tells every peer what we delivered (unreliable, resent every period)
+    private void sendWatermarks() {
+        synchronized (watermarkBuffer) {
+            watermarkBuffer.clear();
+            broadcaster.watermarks().writeFrame(watermarkBuffer, myId);
+            for (int id = 1; id < ackTrackers.length; id++) {
+                if (ackTrackers[id] != null && id != myId) {
+                    transport.send(id, watermarkBuffer.array(), watermarkBuffer.position());
+                }
+            }
+        }
+    }
 
-        sendMessage(packet, ackMessage);
+    // Sends the cumulative/SACK ACK owed to a peer, if any
+    private void sendAck(int destinationId) {
+        AckTracker tracker = ackTrackers[destinationId];
+        synchronized (tracker) {
+            ByteBuffer ackBuffer = ackBuffers[destinationId];
+            ackBuffer.clear();
+            if (tracker.writeAck(ackBuffer, myId)) {
+                if (Trace.DEBUG_ENABLED) Trace.record(Trace.ACK_SENT, destinationId, ackBuffer.getInt(PacketCodec.SEQ_OFFSET));
+                transport.send(destinationId, ackBuffer.array(), ackBuffer.position());
+                ackFramesSent.incrementAndGet();
+            }
+        }
+    }
+
+    // ACK_DELAY tick: acknowledge everything received since the last ACKs
+    private void flushAcks() {
+        for (int id = 1; id < ackTrackers.length; id++) {
+            if (ackTrackers[id] != null) {
+                sendAck(id);
+            }
+        }
     }
-    
 }
@@ -0,0 +1,56 @@
+package cs451;
+
+import java.util.concurrent.locks.LockSupport;
+
+// Consumer thread fed by lock-free rings (ReceivePipeline workers,
+// OutboundStage flushers): polls while there is work, spins a little when
+// there is none, then parks until a producer wakes it up.
+public abstract class PollingThread extends Thread {
+    private static final int SPINS = 100; // empty polls before parking
+    private static final long IDLE_PARK_NANOS = 1_000_000; // bounds a missed wakeup
+
+    private volatile boolean idle = false;
+
+    protected PollingThread(String name) {
+        super(name);
+        setDaemon(true);
+    }
+
+    // Handles what is ready; false if there was nothing
+    abstract boolean poll();
+
+    abstract boolean isEmpty();
+
+    // Until interrupted, unless the owner stops it otherwise
+    boolean running() {
+        return !isInterrupted();
+    }
+
+    // Producers, after publishing
+    public void wakeUp() {
+        if (idle) {
+            LockSupport.unpark(this);
+        }
+    }
+
+    @Override
+    public void run() {
+        int spins = 0;
+        while (running()) {
+            if (poll()) {
+                spins = 0;
+            } else if (spins++ < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                // Producers read idle after publishing: either they see it
+                // and unpark us, or we see their work here
+                idle = true;
+                if (isEmpty()) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                idle = false;
+                spins = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package cs451;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+// Staged receive path. The transport thread only copies each datagram into
+// the ring of the decode worker of its sender; decode workers run the link
+// layer (ACKs, duplicate packets) and hand each message to the delivery
+// handler of its creator. Frames of one sender and messages of one origin
+// are each handled by a single thread, in arrival order, while different
+// peers and origins spread across cores.
+// With 0 decoders the transport thread decodes, with 0 handlers the
+// decoding thread delivers: 0 and 0 is the single-threaded path.
+public class ReceivePipeline {
+    private static final int FRAME_RING_SIZE = 1024;
+    private static final int MESSAGE_RING_SIZE = 1 << 14;
+
+    private final Transport.FrameHandler decode;
+    private final Consumer<MessageBatch> deliver;
+    private final Decoder[] decoders;
+    private final Handler[] handlers;
+
+    // A pipeline thread: parks when it has nothing to do, producers unpark it
+    private abstract class Worker extends PollingThread {
+        Worker(String name) {
+            super(name);
+        }
+
+        ReceivePipeline pipeline() {
+            return ReceivePipeline.this;
+        }
+    }
+
+    private class Decoder extends Worker {
+        final FrameRing frames;
+
+        Decoder(int index, int maxFrameSize) {
+            super("decoder-" + index);
+            this.frames = new FrameRing(FRAME_RING_SIZE, maxFrameSize);
+        }
+
+        @Override
+        boolean poll() {
+            ByteBuffer frame = frames.peek();
+            if (frame == null) {
+                return false;
+            }
+            decode.onFrame(frame);
+            frames.release();
+            return true;
+        }
+
+        @Override
+        boolean isEmpty() {
+            return frames.isEmpty();
+        }
+    }
+
+    private class Handler extends Worker {
+        final EventRing messages = new EventRing(MESSAGE_RING_SIZE);
+        final MessageBatch batch = new MessageBatch();
+        final LongConsumer onMessage = this::onMessage;
+
+        Handler(int index) {
+            super("handler-" + index);
+        }
+
+        @Override
+        boolean poll() {
+            batch.clear();
+            if (messages.drain(onMessage, 256) == 0) {
+                return false;
+            }
+            deliver.accept(batch);
+            return true;
+        }
+
+        // creator (16 bits) | sender (16 bits) | seq (32 bits); never 0 as seqs start at 1
+        private void onMessage(long event) {
+            batch.add((int) (event >>> 48), (int) (event >>> 32) & 0xFFFF, (int) event);
+        }
+
+        @Override
+        boolean isEmpty() {
+            return messages.isEmpty();
+        }
+    }
+
+    public ReceivePipeline(int decoderCount, int handlerCount, int maxFrameSize,
+                           Transport.FrameHandler decode, Consumer<MessageBatch> deliver) {
+        this.decode = decode;
+        this.deliver = deliver;
+        this.decoders = new Decoder[decoderCount];
+        for (int i = 0; i < decoderCount; i++) {
+            decoders[i] = new Decoder(i, maxFrameSize);
+        }
+        this.handlers = new Handler[handlerCount];
+        for (int i = 0; i < handlerCount; i++) {
+            handlers[i] = new Handler(i);
+        }
+    }
+
+    public void start() {
+        for (Decoder decoder : decoders) {
+            decoder.start();
+        }
+        for (Handler handler : handlers) {
+            handler.start();
+        }
+    }
+
+    public void stop() {
+        for (Decoder decoder : decoders) {
+            decoder.interrupt();
+        }
+        for (Handler handler : handlers) {
+            handler.interrupt();
+        }
+    }
+
+    // Transport threads: the frame is only valid during the call
+    public void onFrame(ByteBuffer frame) {
+        if (decoders.length == 0) {
+            decode.onFrame(frame);
+            return;
+        }
+        if (frame.remaining() < PacketCodec.HEADER_SIZE) {
+            // Invalid frame
+            return;
+        }
+        int senderId = frame.getShort(frame.position() + PacketCodec.SENDER_OFFSET) & 0xFFFF;
+        Decoder decoder = decoders[senderId % decoders.length];
+        // Frames larger than any we send are not from a peer: dropped.
+        // With several sockets, several transport threads may feed one decoder.
+        boolean queued;
+        synchronized (decoder.frames) {
+            queued = decoder.frames.put(frame);
+        }
+        if (queued) {
+            decoder.wakeUp();
+        }
+    }
+
+    // Decoding thread: the batch is reused once the call returns
+    public void dispatch(MessageBatch batch) {
+        if (handlers.length == 0) {
+            deliver.accept(batch);
+            return;
+        }
+        for (int i = 0; i < batch.size; i++) {
+            int creatorId = batch.creatorIds[i] & 0xFFFF;
+            Handler handler = handlers[creatorId % handlers.length];
+            handler.messages.put((long) creatorId << 48 | (long) (batch.senderIds[i] & 0xFFFF) << 32
+                    | (batch.seqNums[i] & 0xFFFFFFFFL));
+            handler.wakeUp();
+        }
+    }
+
+    // The decoder and handler threads (empty with 0 and 0)
+    public List<Thread> threads() {
+        List<Thread> threads = new ArrayList<>();
+        for (Decoder decoder : decoders) {
+            threads.add(decoder);
+        }
+        for (Handler handler : handlers) {
+            threads.add(handler);
+        }
+        return threads;
+    }
+
+    // True on the decoder and handler threads, which must never wait for the send queue
+    public boolean owns(Thread thread) {
+        return thread instanceof Worker && ((Worker) thread).pipeline() == this;
+    }
+}
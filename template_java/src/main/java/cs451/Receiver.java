@@ -10,14 +10,14 @@ public class Receiver extends Thread {
     private final int myId;
     private final Logger logger;
 
-    // To track delivered messages (senderId:sequenceNumber)
-    private final Set<String> deliveredMessages;
+    // To track delivered messages (senderId, sequenceNumber)
+    private final DeliveredSet deliveredMessages;
 
     public Receiver(DatagramSocket socket, int myId, Logger logger) {
         this.socket = socket;
         this.myId = myId;
         this.logger = logger;
-        this.deliveredMessages = new HashSet<>();
+        this.deliveredMessages = new DeliveredSet(0);
     }
 
     @Override
@@ -51,23 +51,19 @@ public class Receiver extends Thread {
 
                     int senderId = Integer.parseInt(parts[0]);
                     int seqNum = Integer.parseInt(parts[1]);
-                    String messageKey = senderId + ":" + seqNum;
                     //System.out.println("Message received from " + senderId + " containing " + seqNum);
 
                     // Check for duplicates
-                    synchronized (deliveredMessages) {
-                        if (!deliveredMessages.contains(messageKey)) {
-                            // Deliver the message
-                            deliveredMessages.add(messageKey);
-
-                            // Log the delivery event
-                            //logger.logDeliver(senderId, seqNum);
-
-                            // Add seqNum to acknowledgments
-                            ackSeqNums.add(seqNum);
-                        }
-                        // Else, duplicate message; ignore
+                    if (deliveredMessages.add(senderId, seqNum)) {
+                        // Deliver the message
+
+                        // Log the delivery event
+                        //logger.logDeliver(senderId, seqNum);
+
+                        // Add seqNum to acknowledgments
+                        ackSeqNums.add(seqNum);
                     }
+                    // Else, duplicate message; ignore
                 }
 
                 // Send acknowledgments for the received messages
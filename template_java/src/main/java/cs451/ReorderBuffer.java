@@ -0,0 +1,152 @@
+package cs451;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// FIFO reorder buffer for the messages of one origin: a circular bitmap
+// indexed by seq, where bit (seq & mask) marks an arrived seq not yet
+// delivered. Producers only set their bit with a CAS; whoever then wins
+// the draining flag sweeps the contiguous run starting at next, clears
+// it and hands it to the sink as one [from, to] range. Runs of one origin
+// reach the sink one at a time and in order.
+// Seqs more than capacity ahead of next wait in a locked min-heap; the
+// sweep only takes the lock once the smallest of them enters the window.
+public class ReorderBuffer {
+    public interface RunSink {
+        void deliver(int originId, int fromSeq, int toSeq);
+    }
+
+    private final int originId;
+    private final RunSink sink;
+    private final AtomicLongArray bits;
+    private final int mask;
+    private volatile long next = 1; // next seq to deliver
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+
+    private final Object overflowLock = new Object();
+    private int[] overflow = new int[16]; // min-heap of seqs, guarded by overflowLock
+    private int overflowSize = 0; // guarded by overflowLock
+    private volatile long overflowMin = Long.MAX_VALUE; // overflow[0], written under overflowLock
+
+    public ReorderBuffer(int originId, int capacity, RunSink sink) {
+        int size = Integer.highestOneBit(Math.max(64, capacity - 1)) << 1;
+        this.originId = originId;
+        this.sink = sink;
+        this.bits = new AtomicLongArray(size / 64);
+        this.mask = size - 1;
+    }
+
+    // Adds seq (each seq at most once); delivers the run it completes, if
+    // any, unless another thread is already draining and will see it
+    public void add(int seq) {
+        if (seq < next) {
+            return;
+        }
+        // next may be stale (smaller): that only sends more seqs to overflow
+        if (seq - next > mask) {
+            synchronized (overflowLock) {
+                push(seq);
+            }
+        } else {
+            set(seq);
+        }
+        drain();
+    }
+
+    private void drain() {
+        while (draining.compareAndSet(false, true)) {
+            long start = next;
+            long end = start;
+            while (true) {
+                migrateOverflow(end);
+                if (!isSet(end)) {
+                    break;
+                }
+                // No producer can set this bit again before next moves past end
+                clear(end);
+                end++;
+            }
+            if (end > start) {
+                next = end;
+                sink.deliver(originId, (int) start, (int) (end - 1));
+            }
+            draining.set(false);
+            // A producer may have set bit(next) after our sweep while we held the flag
+            if (!isSet(next) && !overflowReady()) {
+                return;
+            }
+        }
+    }
+
+    // Moves the overflow seqs that now fit in the window into the bitmap
+    private void migrateOverflow(long from) {
+        if (overflowMin - from > mask) {
+            return;
+        }
+        synchronized (overflowLock) {
+            while (overflowSize > 0 && overflow[0] - from <= mask) {
+                set(pop());
+            }
+        }
+    }
+
+    private boolean overflowReady() {
+        return overflowMin - next <= mask;
+    }
+
+    private void push(int seq) {
+        if (overflowSize == overflow.length) {
+            overflow = Arrays.copyOf(overflow, overflowSize * 2);
+        }
+        int i = overflowSize++;
+        while (i > 0 && overflow[(i - 1) / 2] > seq) {
+            overflow[i] = overflow[(i - 1) / 2];
+            i = (i - 1) / 2;
+        }
+        overflow[i] = seq;
+        overflowMin = overflow[0];
+    }
+
+    private int pop() {
+        int min = overflow[0];
+        int last = overflow[--overflowSize];
+        int i = 0;
+        while (2 * i + 1 < overflowSize) {
+            int child = 2 * i + 1;
+            if (child + 1 < overflowSize && overflow[child + 1] < overflow[child]) {
+                child++;
+            }
+            if (last <= overflow[child]) {
+                break;
+            }
+            overflow[i] = overflow[child];
+            i = child;
+        }
+        overflow[i] = last;
+        overflowMin = overflowSize == 0 ? Long.MAX_VALUE : overflow[0];
+        return min;
+    }
+
+    private void set(long seq) {
+        int word = (int) ((seq & mask) >>> 6);
+        long bit = 1L << seq;
+        long current = bits.get(word);
+        while (!bits.compareAndSet(word, current, current | bit)) {
+            current = bits.get(word);
+        }
+    }
+
+    private void clear(long seq) {
+        int word = (int) ((seq & mask) >>> 6);
+        long bit = 1L << seq;
+        long current = bits.get(word);
+        while (!bits.compareAndSet(word, current, current & ~bit)) {
+            current = bits.get(word);
+        }
+    }
+
+    private boolean isSet(long seq) {
+        return (bits.get((int) ((seq & mask) >>> 6)) & (1L << seq)) != 0;
+    }
+}
@@ -0,0 +1,83 @@
+package cs451;
+
+import java.util.List;
+
+// Hashed timer wheel for retransmission deadlines. Packets are linked
+// into their bucket through their own fields, so schedule() and cancel()
+// are O(1) and allocate nothing; expire() collects every due packet of
+// the elapsed ticks in one pass.
+public class RetransmitWheel {
+    private final Packet[] buckets;
+    private final int mask;
+    private final long tickMs;
+    private final long startTime; // System.nanoTime(): the wall clock may step
+    private long currentTick = 0;
+
+    public RetransmitWheel(int wheelSize, long tickMs) {
+        int size = Integer.highestOneBit(Math.max(2, wheelSize - 1)) << 1;
+        this.buckets = new Packet[size];
+        this.mask = size - 1;
+        this.tickMs = tickMs;
+        this.startTime = System.nanoTime();
+    }
+
+    public synchronized void schedule(Packet packet, long delayMs) {
+        if (packet.wheelScheduled) {
+            unlink(packet);
+        }
+        long elapsed = elapsedMs();
+        long deadlineTick = Math.max(currentTick + 1, (elapsed + delayMs + tickMs - 1) / tickMs);
+        packet.deadlineTick = deadlineTick;
+
+        int bucket = (int) (deadlineTick & mask);
+        packet.wheelPrev = null;
+        packet.wheelNext = buckets[bucket];
+        if (buckets[bucket] != null) {
+            buckets[bucket].wheelPrev = packet;
+        }
+        buckets[bucket] = packet;
+        packet.wheelScheduled = true;
+    }
+
+    public synchronized void cancel(Packet packet) {
+        if (packet.wheelScheduled) {
+            unlink(packet);
+        }
+    }
+
+    // Moves every packet whose deadline has passed into 'expired'
+    public synchronized void expire(List<Packet> expired) {
+        long targetTick = elapsedMs() / tickMs;
+        while (currentTick < targetTick) {
+            currentTick++;
+            Packet packet = buckets[(int) (currentTick & mask)];
+            while (packet != null) {
+                Packet next = packet.wheelNext;
+                // Deadlines further than one turn stay for a later round
+                if (packet.deadlineTick <= currentTick) {
+                    unlink(packet);
+                    expired.add(packet);
+                }
+                packet = next;
+            }
+        }
+    }
+
+    private long elapsedMs() {
+        return (System.nanoTime() - startTime) / 1_000_000;
+    }
+
+    private void unlink(Packet packet) {
+        if (packet.wheelPrev != null) {
+            packet.wheelPrev.wheelNext = packet.wheelNext;
+        } else {
+            buckets[(int) (packet.deadlineTick & mask)] = packet.wheelNext;
+        }
+        if (packet.wheelNext != null) {
+            packet.wheelNext.wheelPrev = packet.wheelPrev;
+        }
+        packet.wheelPrev = null;
+        packet.wheelNext = null;
+        packet.wheelScheduled = false;
+    }
+}
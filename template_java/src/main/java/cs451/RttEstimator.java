@@ -0,0 +1,61 @@
+package cs451;
+
+// Per-destination RTT estimator (Jacobson/Karels smoothing, Karn's rule
+// applied by the caller: only packets sent once give a sample).
+// The RTO doubles on every loss event until a fresh sample arrives.
+public class RttEstimator {
+    public static final long INITIAL_RTO = 500;
+    public static final long MIN_RTO = 20;
+    public static final long MAX_RTO = 3000;
+    private static final int MAX_BACKOFF = 64;
+
+    // In microseconds, loopback RTTs are well below a millisecond
+    private double srtt = -1;
+    private double rttvar = 0;
+    private long rto = INITIAL_RTO;
+    private int backoff = 1;
+    private long samples = 0;
+    private long timeouts = 0;
+    private long lastBackoff; // System.nanoTime() of the last doubling, if backoff > 1
+
+    public synchronized void onSample(long rttMicros) {
+        if (srtt < 0) {
+            srtt = rttMicros;
+            rttvar = rttMicros / 2.0;
+        } else {
+            rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - rttMicros);
+            srtt = 0.875 * srtt + 0.125 * rttMicros;
+        }
+        samples++;
+        backoff = 1;
+        rto = clamp((long) Math.ceil((srtt + 4 * rttvar) / 1000.0));
+    }
+
+    public synchronized void onTimeout() {
+        timeouts++;
+        long now = System.nanoTime();
+        // Packets expiring within the RTO they were sent with, counted from the
+        // last doubling, were lost in the same burst: one loss event, one
+        // backoff (as the congestion controllers)
+        if (backoff > 1 && now - lastBackoff < clamp(rto * (backoff / 2)) * 1_000_000) {
+            return;
+        }
+        lastBackoff = now;
+        backoff = Math.min(backoff * 2, MAX_BACKOFF);
+    }
+
+    // Current retransmission timeout in ms, backoff included
+    public synchronized long rto() {
+        return clamp(rto * backoff);
+    }
+
+    private static long clamp(long value) {
+        return Math.max(MIN_RTO, Math.min(MAX_RTO, value));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("srtt=%.0fus rttvar=%.0fus rto=%dms backoff=%d samples=%d timeouts=%d",
+            Math.max(srtt, 0), rttvar, clamp(rto * backoff), backoff, samples, timeouts);
+    }
+}
@@ -0,0 +1,255 @@
+package cs451;
+
+import java.util.function.IntBinaryOperator;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// What is still owed to each destination, served round-robin. For each
+// (destination, origin) the seqs to send are kept as SequenceRanges, so the
+// backlog of a peer that stopped acknowledging (e.g. crashed) costs a few
+// ranges per origin, not one object per message. Taking a batch for a
+// destination is O(batch + origins), and a destination is only picked when
+// the SendWindow grants it a credit, so a slow peer never blocks the others.
+// A batch holds at most maxMessages messages and maxBytes encoded bytes;
+// within it each origin's seqs leave in increasing order, origins in turn.
+// With a linger time, a partial batch waits for more messages while the
+// destination still has packets in flight (small bursts leave at once).
+// Seqs at or below the delivered watermark of (destination, origin) (e.g.
+// already delivered by their destination) are dropped instead of sent.
+// put() is the producers' flow control: it blocks while capacity messages
+// are queued and is woken as soon as batches leave, without polling.
+// Batches are taken either by one consumer for every destination, or by
+// one consumer per destination (e.g. one virtual thread per peer).
+public class SendQueues {
+    private final SequenceRanges[][] owed; // [destination][origin], created on first use
+    private final int[] queued; // per destination, seqs owed over every origin
+    private final int[] queuedBytes;
+    private final int[] originCursor; // per destination, origin served first by the next batch
+    private final long[] headSince;
+    private final int maxMessages;
+    private final int maxBytes;
+    private final long lingerNanos;
+    private final IntBinaryOperator delivered; // (destination, origin) -> watermark, or null
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition(); // for the round-robin consumer
+    private final Condition[] ready; // per destination, for its own consumer
+    private final Condition notFull = lock.newCondition();
+    private int size = 0;
+    private int cursor = 1;
+
+    public SendQueues(int maxId, int capacity, int maxMessages, int maxBytes, long lingerNanos, IntBinaryOperator delivered) {
+        this.owed = new SequenceRanges[maxId + 1][maxId + 1];
+        this.queued = new int[maxId + 1];
+        this.queuedBytes = new int[maxId + 1];
+        this.originCursor = new int[maxId + 1];
+        this.headSince = new long[maxId + 1];
+        this.ready = new Condition[maxId + 1];
+        for (int id = 1; id <= maxId; id++) {
+            originCursor[id] = 1;
+            ready[id] = lock.newCondition();
+        }
+        // A larger frame could never be sent, a larger count would wrap in the
+        // header; a batch always has room for one message
+        this.maxMessages = Math.min(maxMessages, PacketCodec.MAX_COUNT);
+        this.maxBytes = Math.max(PacketCodec.HEADER_SIZE + PacketCodec.MAX_PAIR_SIZE,
+                Math.min(maxBytes, PacketCodec.MAX_FRAME_SIZE));
+        this.lingerNanos = lingerNanos;
+        this.delivered = delivered;
+        this.capacity = capacity;
+    }
+
+    public int maxFrameSize() {
+        return (int) Math.min(maxBytes, PacketCodec.HEADER_SIZE + (long) maxMessages * PacketCodec.MAX_PAIR_SIZE);
+    }
+
+    // Most messages one batch can hold (a pair takes at least 2 bytes)
+    public int maxBatchSize() {
+        return Math.min(maxMessages, (maxBytes - PacketCodec.HEADER_SIZE) / 2);
+    }
+
+    // Waits for room below capacity, then queues the message
+    public void put(int destinationId, int creatorId, int seqNum) throws InterruptedException {
+        lock.lock();
+        try {
+            while (size >= capacity) {
+                notFull.await();
+            }
+            enqueue(destinationId, creatorId, seqNum);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Queues the message even above capacity, for threads that must not block
+    public void add(int destinationId, int creatorId, int seqNum) {
+        lock.lock();
+        try {
+            enqueue(destinationId, creatorId, seqNum);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(int destinationId, int creatorId, int seqNum) {
+        SequenceRanges seqs = owed[destinationId][creatorId];
+        if (seqs == null) {
+            seqs = new SequenceRanges();
+            owed[destinationId][creatorId] = seqs;
+        }
+        if (!seqs.add(seqNum)) {
+            // Already owed
+            return;
+        }
+        if (queued[destinationId] == 0) {
+            headSince[destinationId] = System.nanoTime();
+        }
+        queued[destinationId]++;
+        queuedBytes[destinationId] += PacketCodec.pairSize(creatorId, seqNum);
+        size++;
+        changed.signal();
+        ready[destinationId].signal();
+    }
+
+    // Credit came back: the consumer may now be able to serve the destination
+    public void wakeUp(int destinationId) {
+        lock.lock();
+        try {
+            changed.signal();
+            ready[destinationId].signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Blocks until some destination has both messages and a credit, then
+    // moves one batch of its messages into packet and returns its id
+    public int takeBatch(Packet packet, SendWindow window) throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                long wait = Long.MAX_VALUE;
+                int n = queued.length - 1;
+                for (int i = 0; i < n; i++) {
+                    int destinationId = (cursor - 1 + i) % n + 1;
+                    long destinationWait = tryTake(destinationId, packet, window, now);
+                    if (destinationWait == 0) {
+                        // Next call starts with the following destination
+                        cursor = destinationId % n + 1;
+                        return destinationId;
+                    }
+                    wait = Math.min(wait, destinationWait);
+                }
+                if (wait == Long.MAX_VALUE) {
+                    changed.await();
+                } else {
+                    changed.awaitNanos(wait);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Same for a single destination: blocks until it has both messages and a credit
+    public void takeBatch(int destinationId, Packet packet, SendWindow window) throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                long wait = tryTake(destinationId, packet, window, System.nanoTime());
+                if (wait == 0) {
+                    return;
+                }
+                if (wait == Long.MAX_VALUE) {
+                    ready[destinationId].await();
+                } else {
+                    ready[destinationId].awaitNanos(wait);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Moves a batch of the destination into packet and returns 0 if it can
+    // send now; otherwise returns how long its partial batch may still
+    // linger, or Long.MAX_VALUE (nothing queued, or no credit)
+    private long tryTake(int destinationId, Packet packet, SendWindow window, long now) {
+        if (queued[destinationId] == 0) {
+            return Long.MAX_VALUE;
+        }
+        if (lingerNanos > 0 && !fillsBatch(destinationId) && window.inFlight(destinationId) > 0) {
+            long due = headSince[destinationId] + lingerNanos;
+            if (due > now) {
+                return due - now;
+            }
+        }
+        if (!window.tryAcquire(destinationId)) {
+            return Long.MAX_VALUE;
+        }
+        drain(destinationId, packet, now);
+        if (packet.size == 0) {
+            // Everything drain() looked at was already delivered by the destination
+            window.release(destinationId);
+            return Long.MAX_VALUE;
+        }
+        packet.destinationId = destinationId;
+        return 0;
+    }
+
+    private boolean fillsBatch(int destinationId) {
+        return queued[destinationId] >= maxMessages
+            || PacketCodec.HEADER_SIZE + queuedBytes[destinationId] >= maxBytes;
+    }
+
+    // Fills packet from the origins in turn, lowest seqs first, dropping
+    // the ones the destination already delivered on the way
+    private void drain(int destinationId, Packet packet, long now) {
+        SequenceRanges[] origins = owed[destinationId];
+        int n = origins.length - 1;
+        int bytes = PacketCodec.HEADER_SIZE;
+        int origin = originCursor[destinationId];
+        boolean full = false;
+        for (int i = 0; i < n && !full && queued[destinationId] > 0; i++) {
+            origin = (originCursor[destinationId] - 1 + i) % n + 1;
+            SequenceRanges seqs = origins[origin];
+            if (seqs == null || seqs.isEmpty()) {
+                continue;
+            }
+            int watermark = delivered == null ? 0 : delivered.applyAsInt(destinationId, origin);
+            while (!seqs.isEmpty()) {
+                int seq = seqs.first();
+                int pairSize = PacketCodec.pairSize(origin, seq);
+                boolean obsolete = seq <= watermark;
+                if (!obsolete && (packet.size >= maxMessages || (bytes + pairSize > maxBytes && packet.size > 0))) {
+                    full = true;
+                    break;
+                }
+                seqs.pollFirst();
+                queued[destinationId]--;
+                queuedBytes[destinationId] -= pairSize;
+                size--;
+                if (!obsolete) {
+                    bytes += pairSize;
+                    packet.add(origin, seq);
+                }
+            }
+        }
+        // The next batch starts with the origin after the last one served
+        originCursor[destinationId] = origin % n + 1;
+        if (size < capacity) {
+            notFull.signalAll();
+        }
+        headSince[destinationId] = now;
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package cs451;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+// Credit-based send window: one credit per packet in flight, per
+// destination, sized by that destination's CongestionController.
+// ACKs return credit; the caller then wakes the sender (ACK clocking).
+public class SendWindow {
+    private final CongestionController[] controllers;
+    private final int[] inFlight;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public SendWindow(int maxId, String kind) {
+        this.controllers = new CongestionController[maxId + 1];
+        this.inFlight = new int[maxId + 1];
+        for (int id = 1; id <= maxId; id++) {
+            controllers[id] = CongestionController.create(kind);
+        }
+    }
+
+    // Takes a credit if one packet more may be in flight to the destination
+    public boolean tryAcquire(int destinationId) {
+        lock.lock();
+        try {
+            if (inFlight[destinationId] >= controllers[destinationId].window()) {
+                return false;
+            }
+            inFlight[destinationId]++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int inFlight(int destinationId) {
+        lock.lock();
+        try {
+            return inFlight[destinationId];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // One ACK released 'packets' packets; the RTT sample (if any) goes with the first
+    public void onAck(int destinationId, int packets, long rttMicros) {
+        lock.lock();
+        try {
+            inFlight[destinationId] -= packets;
+            for (int i = 0; i < packets; i++) {
+                controllers[destinationId].onAck(i == 0 ? rttMicros : -1);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns an unused credit (its batch turned out empty), no congestion signal
+    public void release(int destinationId) {
+        lock.lock();
+        try {
+            inFlight[destinationId]--;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onTimeout(int destinationId) {
+        lock.lock();
+        try {
+            controllers[destinationId].onTimeout();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String describe(int destinationId) {
+        lock.lock();
+        try {
+            return controllers[destinationId] + " inFlight=" + inFlight[destinationId];
+        } finally {
+            lock.unlock();
+        }
+    }
+}
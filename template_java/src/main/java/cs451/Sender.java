@@ -12,11 +12,11 @@ public class Sender extends Thread {
     private final int myId;
     private final Logger logger;
 
-    private static final int TIMEOUT = 100;
+    private final RttEstimator rtt = new RttEstimator();
+    private final Set<Integer> retransmitted = ConcurrentHashMap.newKeySet();
     private final List<Integer> window = Collections.synchronizedList(new LinkedList<>());
     private final ConcurrentHashMap<Integer, Long> sentMessages = new ConcurrentHashMap<>();
     private int nextSeqNum = 1; // Next sequence number to send
-    private final Set<Integer> loggedMessages = ConcurrentHashMap.newKeySet();
 
     // Make windowSize variable
     private int windowSize;
@@ -25,8 +25,9 @@ public class Sender extends Thread {
     private int numberOfAcksForIncreasing = 0;
     private int numberOfAcksForDecreasing = 0;
 
-    // Maximum number of messages per packet
-    private static final int MAX_MESSAGES_PER_PACKET = 8;
+    // Maximum number of messages per packet ("fixed" batching), or bytes per packet ("mtu")
+    private static final int MAX_MESSAGES_PER_PACKET = Options.BATCH.equals("mtu") ? Integer.MAX_VALUE : 8;
+    private static final int MAX_BYTES_PER_PACKET = Options.BATCH.equals("mtu") ? Options.BATCH_BYTES : Integer.MAX_VALUE;
 
     public Sender(DatagramSocket socket, Host receiverHost, int numMessages, int myId, Logger logger, int initialWindowSize) {
         this.socket = socket;
@@ -41,7 +42,7 @@ public class Sender extends Thread {
     @Override
     public void run() {
         // Start a thread to listen for acknowledgments
-        Thread ackListener = new Thread(this::listenForAcks);
+        Thread ackListener = Threads.newThread("ack-listener", this::listenForAcks);
         ackListener.start();
 
         // Initialize the window
@@ -71,7 +72,7 @@ public class Sender extends Thread {
             }
 
             try {
-                Thread.sleep(TIMEOUT / 2);
+                Thread.sleep(Math.max(1, rtt.rto() / 2));
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
@@ -85,11 +86,22 @@ public class Sender extends Thread {
     }
 
     private void sendMessages(List<Integer> seqNums) {
-        // Split the list into batches of MAX_MESSAGES_PER_PACKET
-        for (int i = 0; i < seqNums.size(); i += MAX_MESSAGES_PER_PACKET) {
-            int end = Math.min(i + MAX_MESSAGES_PER_PACKET, seqNums.size());
-            List<Integer> batch = seqNums.subList(i, end);
-            sendMessageBatch(batch);
+        // Split the list into batches of MAX_MESSAGES_PER_PACKET / MAX_BYTES_PER_PACKET
+        int i = 0;
+        while (i < seqNums.size()) {
+            int end = i;
+            int bytes = 0;
+            while (end < seqNums.size() && end - i < MAX_MESSAGES_PER_PACKET) {
+                // "myId:seqNum;"
+                int entryBytes = String.valueOf(myId).length() + String.valueOf(seqNums.get(end)).length() + 2;
+                if (end > i && bytes + entryBytes > MAX_BYTES_PER_PACKET) {
+                    break;
+                }
+                bytes += entryBytes;
+                end++;
+            }
+            sendMessageBatch(seqNums.subList(i, end));
+            i = end;
         }
     }
 
@@ -98,18 +110,14 @@ public class Sender extends Thread {
         StringBuilder messageDataBuilder = new StringBuilder();
         for (Integer seqNum : seqNums) {
             messageDataBuilder.append(myId).append(":").append(seqNum).append(";");
-            // Log the message if not already logged
-            if (!loggedMessages.contains(seqNum)) {
-                logger.logSend(seqNum);
-                loggedMessages.add(seqNum);
-            }
+            // Retransmissions log again: the logger keeps only the highest seq
+            logger.logSend(seqNum);
         }
         String messageData = messageDataBuilder.toString();
         byte[] buf = messageData.getBytes();
 
         try {
-            InetAddress receiverAddress = InetAddress.getByName(receiverHost.getIp());
-            DatagramPacket packet = new DatagramPacket(buf, buf.length, receiverAddress, receiverHost.getPort());
+            DatagramPacket packet = new DatagramPacket(buf, buf.length, receiverHost.getSocketAddress());
 
             socket.send(packet);
             //System.out.println("Batch sent by " + myId + " containing " + seqNums);
@@ -126,13 +134,14 @@ public class Sender extends Thread {
 
             for (Integer seqNum : window) {
                 Long lastSentTime = sentMessages.get(seqNum);
-                if (lastSentTime != null && currentTime - lastSentTime >= TIMEOUT) {
+                if (lastSentTime != null && currentTime - lastSentTime >= rtt.rto()) {
                     timedOutSeqNums.add(seqNum);
                     congestionDetected = true;
                 }
             }
 
             if (congestionDetected) {
+                rtt.onTimeout();
                 numberOfAcksForDecreasing++;
                 if (numberOfAcksForDecreasing > 200) {
                     decreaseWindow();
@@ -146,6 +155,7 @@ public class Sender extends Thread {
                 long currentTimestamp = System.currentTimeMillis();
                 for (Integer seqNum : timedOutSeqNums) {
                     sentMessages.put(seqNum, currentTimestamp);
+                    retransmitted.add(seqNum);
                 }
             }
         }
@@ -197,7 +207,11 @@ public class Sender extends Thread {
                         synchronized (window) {
                             if (window.contains(ackSeqNum)) {
                                 window.remove((Integer) ackSeqNum);
-                                sentMessages.remove(ackSeqNum);
+                                Long sentTime = sentMessages.remove(ackSeqNum);
+                                // Karn: no sample from retransmitted messages
+                                if (sentTime != null && !retransmitted.remove(ackSeqNum)) {
+                                    rtt.onSample((System.currentTimeMillis() - sentTime) * 1000);
+                                }
                                 numberOfAcksForIncreasing++;
 
                                 if (numberOfAcksForIncreasing > 200) {
@@ -0,0 +1,89 @@
+package cs451;
+
+import java.util.Arrays;
+
+// Set of sequence numbers (starting at 1) stored as sorted, disjoint,
+// inclusive ranges. Seqs mostly arrive in increasing order, so a set of
+// any size is usually a handful of ranges: memory follows the gaps, not
+// the number of seqs. Not thread-safe.
+public class SequenceRanges {
+    private int[] starts = new int[4];
+    private int[] ends = new int[4];
+    private int count = 0; // ranges
+    private int size = 0; // seqs
+
+    // Returns false if seq was already in the set
+    public boolean add(int seq) {
+        // Common case: extends the last range
+        if (count > 0 && seq == ends[count - 1] + 1) {
+            ends[count - 1] = seq;
+            size++;
+            return true;
+        }
+        // Last range starting at or before seq, or -1
+        int i = Arrays.binarySearch(starts, 0, count, seq);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        if (i >= 0 && seq <= ends[i]) {
+            return false;
+        }
+        boolean joinsPrevious = i >= 0 && ends[i] + 1 == seq;
+        boolean joinsNext = i + 1 < count && starts[i + 1] == seq + 1;
+        if (joinsPrevious && joinsNext) {
+            ends[i] = ends[i + 1];
+            remove(i + 1);
+        } else if (joinsPrevious) {
+            ends[i] = seq;
+        } else if (joinsNext) {
+            starts[i + 1] = seq;
+        } else {
+            insert(i + 1, seq);
+        }
+        size++;
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Smallest seq of the set; the set must not be empty
+    public int first() {
+        return starts[0];
+    }
+
+    // Removes and returns the smallest seq; the set must not be empty
+    public int pollFirst() {
+        int seq = starts[0];
+        if (seq == ends[0]) {
+            remove(0);
+        } else {
+            starts[0] = seq + 1;
+        }
+        size--;
+        return seq;
+    }
+
+    private void insert(int index, int seq) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        System.arraycopy(starts, index, starts, index + 1, count - index);
+        System.arraycopy(ends, index, ends, index + 1, count - index);
+        starts[index] = seq;
+        ends[index] = seq;
+        count++;
+    }
+
+    private void remove(int index) {
+        System.arraycopy(starts, index + 1, starts, index, count - index - 1);
+        System.arraycopy(ends, index + 1, ends, index, count - index - 1);
+        count--;
+    }
+}
@@ -0,0 +1,117 @@
+package cs451;
+
+// Set of sequence numbers (starting at 1) stored as a watermark, below
+// which everything was seen, plus a ring bitmap for the seqs above it.
+// Memory follows the reorder window, not the number of seqs seen.
+// Not thread-safe.
+public class SequenceWindow {
+    private static final int INITIAL_BITS = 1024;
+
+    private long watermark = 0; // every seq <= watermark was seen
+    private long highest = 0; // largest seq seen
+    private long[] bits = new long[INITIAL_BITS / 64]; // bit (head + i) is seq watermark + 1 + i
+    private int head = 0;
+
+    // Returns false if seq was already in the set
+    public boolean add(long seq) {
+        if (seq <= watermark) {
+            return false;
+        }
+        long offset = seq - watermark - 1;
+        if (offset >= capacity()) {
+            grow(offset + 1);
+        }
+        int bit = (int) ((head + offset) & (capacity() - 1));
+        long mask = 1L << bit;
+        if ((bits[bit >>> 6] & mask) != 0) {
+            return false;
+        }
+        bits[bit >>> 6] |= mask;
+        highest = Math.max(highest, seq);
+        if (offset == 0) {
+            advance();
+        }
+        return true;
+    }
+
+    public boolean contains(long seq) {
+        if (seq <= watermark) {
+            return true;
+        }
+        long offset = seq - watermark - 1;
+        if (offset >= capacity()) {
+            return false;
+        }
+        int bit = (int) ((head + offset) & (capacity() - 1));
+        return (bits[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    public long watermark() {
+        return watermark;
+    }
+
+    // Writes the ranges of seqs seen above the watermark, in order, into
+    // starts/ends (inclusive); returns how many, at most starts.length
+    public int ranges(long[] starts, long[] ends) {
+        int count = 0;
+        long seq = watermark + 1;
+        while (seq <= highest && count < starts.length) {
+            while (seq <= highest && !contains(seq)) {
+                seq++;
+            }
+            if (seq > highest) {
+                break;
+            }
+            starts[count] = seq;
+            while (seq <= highest && contains(seq)) {
+                seq++;
+            }
+            ends[count] = seq - 1;
+            count++;
+        }
+        return count;
+    }
+
+    private int capacity() {
+        return bits.length * 64;
+    }
+
+    // Slides the watermark over the seqs now contiguous with it
+    private void advance() {
+        int mask = capacity() - 1;
+        while (true) {
+            int word = head >>> 6;
+            if ((head & 63) == 0 && bits[word] == -1L) {
+                bits[word] = 0;
+                watermark += 64;
+                head = (head + 64) & mask;
+                continue;
+            }
+            long bit = 1L << head;
+            if ((bits[word] & bit) == 0) {
+                return;
+            }
+            bits[word] &= ~bit;
+            watermark++;
+            head = (head + 1) & mask;
+        }
+    }
+
+    private void grow(long needed) {
+        int capacity = capacity();
+        int newCapacity = capacity;
+        while (newCapacity < needed) {
+            newCapacity *= 2;
+        }
+        long[] newBits = new long[newCapacity / 64];
+        // Re-lay the ring so that head becomes bit 0
+        for (int i = 0; i < capacity; i++) {
+            int bit = (head + i) & (capacity - 1);
+            if ((bits[bit >>> 6] & (1L << bit)) != 0) {
+                newBits[i >>> 6] |= 1L << i;
+            }
+        }
+        bits = newBits;
+        head = 0;
+    }
+}
@@ -0,0 +1,190 @@
+package cs451;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Blocking java.net transport: one thread in receive() per socket, callers
+// send directly. With several sockets they share the host port through
+// SO_REUSEPORT: the kernel spreads the peers over the sockets (all the
+// datagrams of one peer land on the same one) and a destination is always
+// sent to from the same socket. With batched outbound, each socket has an
+// OutboundStage: send() only copies the datagram.
+public class SocketTransport implements Transport {
+    private final DatagramSocket[] sockets;
+    private final OutboundStage[] stages; // null with direct outbound
+    private final InetSocketAddress[] addresses;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+    // One reusable DatagramPacket per sending thread
+    private final ThreadLocal<DatagramPacket> sendPacket = ThreadLocal.withInitial(() -> new DatagramPacket(new byte[0], 0));
+
+    private final List<Thread> listenerThreads = new ArrayList<>();
+
+    // setOption of a DatagramSocket or a DatagramChannel, e.g. socket::setOption
+    interface OptionTarget {
+        <T> void setOption(SocketOption<T> name, T value) throws IOException;
+    }
+
+    public SocketTransport(Host myHost, List<Host> hosts) throws IOException {
+        int count = socketCount();
+        this.sockets = new DatagramSocket[count];
+        for (int i = 0; i < count; i++) {
+            sockets[i] = open(myHost.getPort(), count > 1);
+        }
+        this.addresses = resolve(hosts);
+        this.stages = Options.OUTBOUND.equals("batched") ? new OutboundStage[count] : null;
+        for (int i = 0; stages != null && i < count; i++) {
+            DatagramSocket socket = sockets[i];
+            DatagramPacket packet = new DatagramPacket(new byte[0], 0); // flusher only
+            stages[i] = new OutboundStage("send-" + i, 4096, false, (destinationId, frame) -> {
+                packet.setData(frame.array(), 0, frame.limit());
+                packet.setSocketAddress(addresses[destinationId]);
+                socket.send(packet);
+                return true;
+            });
+        }
+    }
+
+    // Sockets to bind on the host port (both transports): Options.SOCKETS,
+    // or 1 where SO_REUSEPORT is not available
+    static int socketCount() throws IOException {
+        int count = Options.SOCKETS;
+        if (count > 1) {
+            try (DatagramChannel probe = DatagramChannel.open()) {
+                if (!probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    System.err.println("SO_REUSEPORT indisponible, une seule socket");
+                    count = 1;
+                }
+            }
+        }
+        return count;
+    }
+
+    // Options of each socket, set before bind (both transports)
+    static void configure(OptionTarget target, boolean reusePort) throws IOException {
+        if (reusePort) {
+            target.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        // Bursts of all-to-all traffic overflow the default kernel buffers
+        if (Options.SOCKET_RCVBUF > 0) {
+            target.setOption(StandardSocketOptions.SO_RCVBUF, Options.SOCKET_RCVBUF);
+        }
+        if (Options.SOCKET_SNDBUF > 0) {
+            target.setOption(StandardSocketOptions.SO_SNDBUF, Options.SOCKET_SNDBUF);
+        }
+    }
+
+    private static DatagramSocket open(int port, boolean reusePort) throws IOException {
+        DatagramSocket socket = new DatagramSocket(null);
+        try {
+            configure(socket::setOption, reusePort);
+            socket.bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    static InetSocketAddress[] resolve(List<Host> hosts) {
+        int maxId = 0;
+        for (Host host : hosts) {
+            maxId = Math.max(maxId, host.getId());
+        }
+        InetSocketAddress[] addresses = new InetSocketAddress[maxId + 1];
+        for (Host host : hosts) {
+            addresses[host.getId()] = host.getSocketAddress();
+        }
+        return addresses;
+    }
+
+    @Override
+    public void start(FrameHandler handler) {
+        for (DatagramSocket socket : sockets) {
+            listenerThreads.add(new Thread(() -> listen(socket, handler), "receive-" + listenerThreads.size()));
+        }
+        for (Thread thread : listenerThreads) {
+            thread.start();
+        }
+        for (int i = 0; stages != null && i < stages.length; i++) {
+            stages[i].start();
+        }
+    }
+
+    private void listen(DatagramSocket socket, FrameHandler handler) {
+        byte[] receiveBuf = new byte[65535];
+        DatagramPacket receivePacket = new DatagramPacket(receiveBuf, receiveBuf.length);
+        ByteBuffer receiveFrame = ByteBuffer.wrap(receiveBuf);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                receivePacket.setLength(receiveBuf.length);
+                socket.receive(receivePacket);
+                receiveFrame.clear();
+                receiveFrame.limit(receivePacket.getLength());
+                handler.onFrame(receiveFrame);
+            } catch (SocketException e) {
+                // Socket closed; exit loop
+                break;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void send(int destinationId, byte[] frame, int length) {
+        int index = destinationId % sockets.length;
+        if (stages != null && stages[index].offer(destinationId, frame, length)) {
+            return;
+        }
+        DatagramSocket socket = sockets[index];
+        DatagramPacket packet = sendPacket.get();
+        packet.setData(frame, 0, length);
+        packet.setSocketAddress(addresses[destinationId]);
+        try {
+            socket.send(packet);
+        } catch (IOException e) {
+            if (!socket.isClosed()) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Override
+    public void schedule(Runnable task, long periodMs) {
+        timer.scheduleAtFixedRate(task, periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public List<Thread> receiveThreads() {
+        return listenerThreads;
+    }
+
+    @Override
+    public void close() {
+        for (Thread thread : listenerThreads) {
+            thread.interrupt();
+        }
+        timer.shutdownNow();
+        for (int i = 0; stages != null && i < stages.length; i++) {
+            stages[i].close();
+        }
+        for (DatagramSocket socket : sockets) {
+            if (!socket.isClosed()) {
+                socket.close();
+            }
+        }
+    }
+}
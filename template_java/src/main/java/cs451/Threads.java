@@ -0,0 +1,52 @@
+package cs451;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+// Creates the threads of the blocking loops (senders, broadcaster): platform
+// threads, or virtual threads with -Dcs451.threads=virtual on JDK 21+. The
+// virtual thread builder is looked up reflectively, so the code still
+// compiles for Java 11; on an older JDK it falls back to platform threads.
+public class Threads {
+    public static final boolean VIRTUAL;
+    private static final MethodHandle ofVirtual;
+    private static final MethodHandle name;
+    private static final MethodHandle unstarted;
+
+    static {
+        MethodHandle builder = null;
+        MethodHandle setName = null;
+        MethodHandle create = null;
+        if (Options.THREADS.equals("virtual")) {
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                Class<?> virtualClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+                builder = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(virtualClass));
+                setName = lookup.findVirtual(builderClass, "name", MethodType.methodType(builderClass, String.class));
+                create = lookup.findVirtual(builderClass, "unstarted", MethodType.methodType(Thread.class, Runnable.class));
+            } catch (ReflectiveOperationException e) {
+                System.err.println("Threads virtuels indisponibles (JDK " + Runtime.version().feature() + "), threads classiques");
+                builder = null;
+            }
+        }
+        VIRTUAL = builder != null;
+        ofVirtual = builder;
+        name = setName;
+        unstarted = create;
+    }
+
+    // A new, not yet started thread running task
+    public static Thread newThread(String threadName, Runnable task) {
+        if (VIRTUAL) {
+            try {
+                Object builder = name.invoke(ofVirtual.invoke(), threadName);
+                return (Thread) unstarted.invoke(builder, task);
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return new Thread(task, threadName);
+    }
+}
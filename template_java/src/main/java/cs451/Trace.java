@@ -0,0 +1,118 @@
+package cs451;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Debug tracing cheap enough to stay enabled in production runs.
+// Call sites test a static final level (folded away by the JIT when off)
+// and record a category with two ints into a fixed in-memory ring; nothing
+// is formatted until the ring is dumped into the .debug file: at close, and
+// while running whenever the trigger file appears (<debug file>.dump, or
+// -Dcs451.trace.trigger=path), polled once per metrics tick. High-rate
+// categories can be sampled.
+//
+//     if (Trace.DEBUG_ENABLED) Trace.record(Trace.SEND, destinationId, packetSeq);
+//
+// Levels and sampling are system properties, e.g. -Dcs451.trace=debug
+// -Dcs451.trace.sample=16 -Dcs451.trace.sample.RETRANSMIT=1
+public class Trace {
+    public static final int OFF = 0;
+    public static final int INFO = 1;
+    public static final int DEBUG = 2;
+
+    private static final int LEVEL = level(System.getProperty("cs451.trace", "off"));
+    public static final boolean INFO_ENABLED = LEVEL >= INFO;
+    public static final boolean DEBUG_ENABLED = LEVEL >= DEBUG;
+
+    // Categories, with the label and argument names used when dumping
+    public static final int SEND = 0;
+    public static final int RETRANSMIT = 1;
+    public static final int RECEIVE = 2;
+    public static final int ACK_SENT = 3;
+    public static final int ACK_RECEIVED = 4;
+    public static final int URB_BROADCAST = 5;
+    public static final int URB_RECEIVE = 6;
+    public static final int URB_RELAY = 7;
+    public static final int URB_DELIVER = 8;
+    public static final int FIFO_DELIVER = 9;
+
+    private static final String[] NAMES = {
+        "SEND", "RETRANSMIT", "RECEIVE", "ACK_SENT", "ACK_RECEIVED",
+        "URB_BROADCAST", "URB_RECEIVE", "URB_RELAY", "URB_DELIVER", "FIFO_DELIVER"
+    };
+    private static final String[][] LABELS = {
+        {"PerfectLink sendMessage() : envoie", "dest", "paquet"},
+        {"PerfectLink retransmitExpired() : renvoie car pas de ack", "dest", "paquet"},
+        {"PerfectLink listen() : recois", "de", "paquet"},
+        {"PerfectLink sendAck() : envoie ack", "dest", "jusqu'a"},
+        {"PerfectLink listen() : recois ack", "de", "liberes"},
+        {"Broadcaster : broadcast 1ere fois", "createur", "seq"},
+        {"Broadcaster : message recu", "createur", "seq"},
+        {"Broadcaster : rebroadcast", "createur", "seq"},
+        {"Broadcaster : deliver (pas fifo)", "createur", "seq"},
+        {"Broadcaster : deliver (FIFO)", "createur", "seq"},
+    };
+
+    // Record one event in sampleRate[category]; the counters are racy on
+    // purpose, sampling only needs to be approximate
+    private static final int[] sampleRate = new int[NAMES.length];
+    private static final long[] sampleCount = new long[NAMES.length];
+
+    // Ring of the latest events: time (ns since start) and category|a|b packed
+    private static final int RING_SIZE = Integer.highestOneBit(Math.max(2, Integer.getInteger("cs451.trace.ring", 1 << 16)));
+    private static final long[] times = new long[LEVEL > OFF ? RING_SIZE : 0];
+    private static final long[] events = new long[LEVEL > OFF ? RING_SIZE : 0];
+    private static final AtomicLong next = new AtomicLong();
+    private static final long start = System.nanoTime();
+
+    static {
+        int defaultRate = Math.max(1, Integer.getInteger("cs451.trace.sample", 1));
+        for (int i = 0; i < NAMES.length; i++) {
+            sampleRate[i] = Math.max(1, Integer.getInteger("cs451.trace.sample." + NAMES[i], defaultRate));
+        }
+    }
+
+    private static int level(String name) {
+        switch (name) {
+            case "debug":
+                return DEBUG;
+            case "info":
+                return INFO;
+            default:
+                return OFF;
+        }
+    }
+
+    public static void record(int category, int a, int b) {
+        if (LEVEL == OFF || sampleCount[category]++ % sampleRate[category] != 0) {
+            return;
+        }
+        int slot = (int) (next.getAndIncrement() & (RING_SIZE - 1));
+        times[slot] = System.nanoTime() - start;
+        events[slot] = (long) category << 56 | (long) (a & 0xFFFFFF) << 32 | (b & 0xFFFFFFFFL);
+    }
+
+    // Formats the ring, oldest event first. Events recorded while dumping
+    // may show up torn: a dump taken while running is approximate at its ends.
+    public static void dump(Writer out) throws IOException {
+        if (LEVEL == OFF) {
+            return;
+        }
+        long end = next.get();
+        long first = Math.max(0, end - RING_SIZE);
+        out.write("--- trace: " + (end - first) + " derniers evenements sur " + end + " ---\n");
+        StringBuilder line = new StringBuilder();
+        for (long i = first; i < end; i++) {
+            int slot = (int) (i & (RING_SIZE - 1));
+            long event = events[slot];
+            String[] labels = LABELS[(int) (event >>> 56)];
+            line.setLength(0);
+            line.append(times[slot] / 1000).append("us ").append(labels[0])
+                .append(' ').append(labels[1]).append('=').append((int) (event >>> 32) & 0xFFFFFF)
+                .append(' ').append(labels[2]).append('=').append((int) event)
+                .append('\n');
+            out.write(line.toString());
+        }
+    }
+}
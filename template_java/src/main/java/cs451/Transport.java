@@ -0,0 +1,35 @@
+package cs451;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+public interface Transport {
+
+    interface FrameHandler {
+        // The frame spans [0, limit) and is only valid during the call
+        void onFrame(ByteBuffer frame);
+    }
+
+    void start(FrameHandler handler);
+
+    // Sends frame[0, length) to the host; safe to call from any thread
+    void send(int destinationId, byte[] frame, int length);
+
+    // Runs task every periodMs on the transport's own timer thread
+    void schedule(Runnable task, long periodMs);
+
+    // Threads that call FrameHandler.onFrame, concurrently if several
+    // (empty before start); all the frames of one peer come from one thread
+    List<Thread> receiveThreads();
+
+    void close();
+
+    static Transport create(String kind, Host myHost, List<Host> hosts) throws IOException {
+        if (kind.equals("nio")) {
+            return new NioTransport(myHost, hosts);
+        }
+        return new SocketTransport(myHost, hosts);
+    }
+
+}